@@ -0,0 +1,156 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.List;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.SuperColumn;
+
+/**
+ * Determines the count used for successive pages of a paged read. Rather than using a fixed count chosen by the caller,
+ * the page size is derived from the average size of the items (columns or rows) and the latency observed on previous
+ * pages so that each response stays close to a target size in bytes. When a page times out the page size is halved.
+ * <p>A single instance should be used for a given scan (or a given column family if the data is uniform). Instances
+ * are thread safe.
+ */
+public class AdaptivePageSizer {
+    /**
+     * Approximate per-column overhead in the Thrift response (clock, ttl, field headers).
+     */
+    private static final int COLUMN_OVERHEAD = 24;
+
+    /**
+     * Weight given to the most recent page when updating the moving averages.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final int targetPageBytes;
+    private final long targetPageLatencyNanos;
+
+    private int pageSize;
+    private double avgItemBytes = -1;
+    private double avgItemLatencyNanos = -1;
+
+    /**
+     * Create a page sizer that targets a response size only.
+     * @param initialPageSize               The count used for the first page
+     * @param targetPageBytes               The approximate number of bytes each page should contain
+     */
+    public AdaptivePageSizer(int initialPageSize, int targetPageBytes) {
+        this(initialPageSize, 1, Integer.MAX_VALUE, targetPageBytes, 0);
+    }
+
+    /**
+     * Create a page sizer.
+     * @param initialPageSize               The count used for the first page
+     * @param minPageSize                   The smallest count that will ever be requested
+     * @param maxPageSize                   The largest count that will ever be requested
+     * @param targetPageBytes               The approximate number of bytes each page should contain
+     * @param targetPageLatency             The maximum time in milliseconds a page should take to retrieve. Pass 0 to ignore latency.
+     */
+    public AdaptivePageSizer(int initialPageSize, int minPageSize, int maxPageSize, int targetPageBytes, int targetPageLatency) {
+        if (minPageSize < 1 || maxPageSize < minPageSize)
+            throw new IllegalArgumentException("Page size bounds must satisfy 1 <= min <= max");
+        if (targetPageBytes <= 0)
+            throw new IllegalArgumentException("The target page size in bytes must be positive");
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.targetPageBytes = targetPageBytes;
+        this.targetPageLatencyNanos = targetPageLatency * 1000000L;
+        this.pageSize = clamp(initialPageSize);
+    }
+
+    /**
+     * Get the count that should be requested for the next page.
+     * @return                              The page size
+     */
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Record the outcome of a page that has been retrieved, and derive the size of the next page from it.
+     * @param itemCount                     The number of items (columns or rows) returned
+     * @param bytes                         The approximate size of the returned items
+     * @param latencyNanos                  The time taken to retrieve the page
+     */
+    public synchronized void onPage(int itemCount, long bytes, long latencyNanos) {
+        if (itemCount <= 0)
+            return;
+        avgItemBytes = average(avgItemBytes, (double) bytes / itemCount);
+        avgItemLatencyNanos = average(avgItemLatencyNanos, (double) latencyNanos / itemCount);
+
+        double next = targetPageBytes / Math.max(avgItemBytes, 1);
+        if (targetPageLatencyNanos > 0 && avgItemLatencyNanos > 0)
+            next = Math.min(next, targetPageLatencyNanos / avgItemLatencyNanos);
+        // Grow cautiously, since a single page of small items says little about the rest of the sequence
+        next = Math.min(next, (double) pageSize * 2);
+        pageSize = clamp(next > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) next);
+    }
+
+    /**
+     * Record that a page request timed out. The next page (including the retry of the page that timed out) is halved.
+     */
+    public synchronized void onTimeout() {
+        pageSize = clamp(pageSize / 2);
+    }
+
+    /**
+     * Estimate the number of bytes a column occupies in a response.
+     * @param column                        The column
+     * @return                              The approximate size
+     */
+    public static int estimateSize(Column column) {
+        if (column == null)
+            return 0;
+        int size = COLUMN_OVERHEAD;
+        if (column.name != null)
+            size += column.name.length;
+        if (column.value != null)
+            size += column.value.length;
+        return size;
+    }
+
+    /**
+     * Estimate the number of bytes a super column and its sub-columns occupy in a response.
+     * @param superColumn                   The super column
+     * @return                              The approximate size
+     */
+    public static int estimateSize(SuperColumn superColumn) {
+        if (superColumn == null)
+            return 0;
+        int size = COLUMN_OVERHEAD;
+        if (superColumn.name != null)
+            size += superColumn.name.length;
+        if (superColumn.columns != null)
+            for (Column column : superColumn.columns)
+                size += estimateSize(column);
+        return size;
+    }
+
+    /**
+     * Estimate the number of bytes a list of columns or super columns occupies in a response.
+     * @param coscList                      The list of columns or super columns
+     * @return                              The approximate size
+     */
+    public static long estimateSize(List<ColumnOrSuperColumn> coscList) {
+        long size = 0;
+        for (ColumnOrSuperColumn cosc : coscList)
+            size += cosc.column != null ? estimateSize(cosc.column) : estimateSize(cosc.super_column);
+        return size;
+    }
+
+    private static double average(double current, double sample) {
+        return current < 0 ? sample : current + SMOOTHING * (sample - current);
+    }
+
+    private int clamp(int size) {
+        if (size < minPageSize)
+            return minPageSize;
+        if (size > maxPageSize)
+            return maxPageSize;
+        return size;
+    }
+}
@@ -0,0 +1,207 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Serializes a <code>batch_mutate</code> call from the batch held by a <code>Mutator</code>, which is keyed by
+ * <code>Bytes</code>, so that it need not be copied into the <code>byte[]</code>-keyed map expected by the Thrift client.
+ * The mutations are still built as Thrift objects when they are added to the <code>Mutator</code>, and are serialized
+ * here when the batch is sent, just as the client would serialize them. The call is serialized once, using the binary
+ * protocol, into a buffer that is reused by later batches on the same thread, and the bytes are written to the
+ * connection's transport as a whole, and re-sent as they are if the operation is retried.
+ */
+class BatchMutateEncoder {
+    /**
+     * Buffers that have grown beyond this size are not kept for reuse after a large batch.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    private static final TStruct ARGS_STRUCT = new TStruct("batch_mutate_args");
+    private static final TField MUTATION_MAP_FIELD = new TField("mutation_map", TType.MAP, (short) 1);
+    private static final TField CONSISTENCY_LEVEL_FIELD = new TField("consistency_level", TType.I32, (short) 2);
+
+    private static final ThreadLocal<BufferTransport> buffers = new ThreadLocal<BufferTransport>();
+
+    private BufferTransport buffer;
+
+    /**
+     * Encode a batch. The encoder must be released once the batch has been sent.
+     */
+    BatchMutateEncoder(Map<Bytes, Map<String, List<Mutation>>> batch, ConsistencyLevel cLevel) throws TException {
+        buffer = buffers.get();
+        if (buffer == null)
+            buffer = new BufferTransport(INITIAL_CAPACITY);
+        else
+            buffers.set(null);
+        buffer.reset();
+        encode(new TBinaryProtocol(buffer), batch, cLevel);
+    }
+
+    /**
+     * Determines whether the encoded call can be sent over a connection, which requires the connection to use the
+     * binary protocol.
+     */
+    static boolean canSend(ThriftPool.Connection conn) {
+        return conn.getAPI().getOutputProtocol() instanceof TBinaryProtocol;
+    }
+
+    /**
+     * Get the size of the encoded call in bytes.
+     */
+    int size() {
+        return buffer.length;
+    }
+
+    /**
+     * Get the buffer holding the encoded call, which is valid up to its size.
+     */
+    byte[] getBytes() {
+        return buffer.bytes;
+    }
+
+    /**
+     * Send the encoded call over a connection and read the reply.
+     */
+    void send(ThriftPool.Connection conn) throws Exception {
+        send(conn, buffer.bytes, buffer.length);
+    }
+
+    /**
+     * Send a call encoded by an encoder, such as one held by a <code>WriteJournal</code>, and read the reply.
+     */
+    static void send(ThriftPool.Connection conn, byte[] bytes, int length) throws Exception {
+        TProtocol oprot = conn.getAPI().getOutputProtocol();
+        TTransport transport = oprot.getTransport();
+        transport.write(bytes, 0, length);
+        transport.flush();
+        readReply(conn.getAPI().getInputProtocol());
+    }
+
+    /**
+     * Return the buffer for reuse by the next batch encoded on this thread.
+     */
+    void release() {
+        if (buffer != null && buffer.bytes.length <= MAX_RETAINED_CAPACITY)
+            buffers.set(buffer);
+        buffer = null;
+    }
+
+    private static void encode(TProtocol oprot, Map<Bytes, Map<String, List<Mutation>>> batch, ConsistencyLevel cLevel) throws TException {
+        // The reply is read by this class rather than the client, so the sequence id is not checked
+        oprot.writeMessageBegin(new TMessage("batch_mutate", TMessageType.CALL, 0));
+        oprot.writeStructBegin(ARGS_STRUCT);
+        oprot.writeFieldBegin(MUTATION_MAP_FIELD);
+        oprot.writeMapBegin(new TMap(TType.STRING, TType.MAP, batch.size()));
+        for (Map.Entry<Bytes, Map<String, List<Mutation>>> keyEntry : batch.entrySet()) {
+            oprot.writeBinary(keyEntry.getKey().getBytes());
+            Map<String, List<Mutation>> mutationsByCf = keyEntry.getValue();
+            oprot.writeMapBegin(new TMap(TType.STRING, TType.LIST, mutationsByCf.size()));
+            for (Map.Entry<String, List<Mutation>> cfEntry : mutationsByCf.entrySet()) {
+                oprot.writeString(cfEntry.getKey());
+                List<Mutation> mutations = cfEntry.getValue();
+                oprot.writeListBegin(new TList(TType.STRUCT, mutations.size()));
+                for (Mutation mutation : mutations)
+                    mutation.write(oprot);
+                oprot.writeListEnd();
+            }
+            oprot.writeMapEnd();
+        }
+        oprot.writeMapEnd();
+        oprot.writeFieldEnd();
+        oprot.writeFieldBegin(CONSISTENCY_LEVEL_FIELD);
+        oprot.writeI32(cLevel.getValue());
+        oprot.writeFieldEnd();
+        oprot.writeFieldStop();
+        oprot.writeStructEnd();
+        oprot.writeMessageEnd();
+    }
+
+    private static void readReply(TProtocol iprot) throws Exception {
+        TMessage msg = iprot.readMessageBegin();
+        if (msg.type == TMessageType.EXCEPTION) {
+            TApplicationException x = TApplicationException.read(iprot);
+            iprot.readMessageEnd();
+            throw x;
+        }
+        Exception declared = null;
+        iprot.readStructBegin();
+        while (true) {
+            TField field = iprot.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+            if (field.type == TType.STRUCT && field.id >= 1 && field.id <= 3)
+                declared = SliceStreamReader.readDeclaredException(iprot, field.id);
+            else
+                TProtocolUtil.skip(iprot, field.type);
+            iprot.readFieldEnd();
+        }
+        iprot.readStructEnd();
+        iprot.readMessageEnd();
+        if (declared != null)
+            throw declared;
+    }
+
+    /**
+     * A write-only transport that appends to a growable byte array.
+     */
+    private static class BufferTransport extends TTransport {
+        private byte[] bytes;
+        private int length;
+
+        BufferTransport(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws TTransportException {
+            throw new TTransportException("Cannot read from an encoding buffer");
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            if (length + len > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, length + len)];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+            System.arraycopy(buf, off, bytes, length, len);
+            length += len;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.cassandra.thrift.Clock;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SuperColumn;
+import org.cliffc.high_scale_lib.Counter;
+import org.slf4j.Logger;
+import org.wyki.portability.SystemProxy;
+
+import static org.wyki.cassandra.pelops.Bytes.fromUTF8;
+import static org.wyki.cassandra.pelops.Bytes.nullSafeGet;
+import static org.wyki.cassandra.pelops.Bytes.transform;
+
+/**
+ * A long-lived writer that accepts writes and deletions from many threads and sends them to Cassandra in shared
+ * batches. A batch is sent once it contains a given number of rows or bytes, or once its first write has waited for the
+ * linger time, whichever comes first. Several batches may be in flight at once. Each write returns a
+ * <code>Future</code> that completes when the batch containing it has been executed, or fails with the batch's
+ * exception.
+ * <p>The approximate size of the writes that have been accepted but not yet executed is bounded. When the bound is
+ * reached, threads making further writes block until earlier batches complete.
+ * <p>Each write and deletion carries the time stamp of the moment it was made rather than the moment its batch was
+ * sent, so the outcome of writes to the same column does not depend on how they were batched.
+ */
+public class BatchingMutator {
+    private static final Logger logger = SystemProxy.getLoggerFromFactory(BatchingMutator.class);
+
+    /**
+     * Approximate per-mutation overhead in the encoded batch, in addition to names and values.
+     */
+    private static final int MUTATION_OVERHEAD = 16;
+
+    private final ThriftPool thrift;
+    private final ConsistencyLevel cLevel;
+    private final Policy policy;
+    private final Semaphore pendingBytes;
+    private final ExecutorService senders;
+    private final Thread flusher;
+    /**
+     * The mutator of each sender thread, which is reset and reused for each batch the thread sends. The writes carry
+     * their own clocks, so the mutator's clock is not used.
+     */
+    private final ThreadLocal<Mutator> mutators = new ThreadLocal<Mutator>() {
+        @Override
+        protected Mutator initialValue() {
+            return thrift.createMutator();
+        }
+    };
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private List<Write> batch = new ArrayList<Write>();
+    private final Set<Bytes> batchRows = new HashSet<Bytes>();
+    private int batchBytes;
+    private long batchStarted;
+    private boolean flushRequested;
+    private volatile boolean shutdown;
+
+    private final Counter writes = new Counter();
+    private final Counter batches = new Counter();
+    private final Counter failedBatches = new Counter();
+
+    /**
+     * Create a batching mutator, and start the thread that sends its batches.
+     * @param thrift                        The pool used to execute batches
+     * @param cLevel                        The Cassandra consistency level with which batches are executed
+     * @param policy                        Determines when batches are sent and how many writes may be pending
+     */
+    public BatchingMutator(ThriftPool thrift, ConsistencyLevel cLevel, Policy policy) {
+        this.thrift = thrift;
+        this.cLevel = cLevel;
+        this.policy = policy;
+        pendingBytes = new Semaphore(policy.getMaxPendingBytes());
+        senders = Executors.newFixedThreadPool(policy.getMaxConcurrentBatches(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "pelops-batching-mutator-sender");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushBatches();
+            }
+        }, "pelops-batching-mutator");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Write a column value.
+     * @param rowKey                        The key of the row to modify
+     * @param colFamily                     The name of the column family to modify
+     * @param column                        The value of the column
+     * @return                              A future that completes when the write has been executed
+     * @throws InterruptedException if interrupted while waiting for pending writes to complete
+     */
+    public Future<Void> writeColumn(String rowKey, String colFamily, Column column) throws InterruptedException {
+        return writeColumn(fromUTF8(rowKey), colFamily, column);
+    }
+
+    /**
+     * Write a column value.
+     * @param rowKey                        The key of the row to modify
+     * @param colFamily                     The name of the column family to modify
+     * @param column                        The value of the column
+     * @return                              A future that completes when the write has been executed
+     * @throws InterruptedException if interrupted while waiting for pending writes to complete
+     */
+    public Future<Void> writeColumn(Bytes rowKey, String colFamily, Column column) throws InterruptedException {
+        ColumnOrSuperColumn cosc = new ColumnOrSuperColumn();
+        cosc.setColumn(column);
+        Mutation mutation = new Mutation();
+        mutation.setColumn_or_supercolumn(cosc);
+        return enqueue(rowKey, colFamily, mutation, AdaptivePageSizer.estimateSize(column));
+    }
+
+    /**
+     * Write multiple sub-column values to a super column.
+     * @param rowKey                        The key of the row to modify
+     * @param colFamily                     The name of the super column family to operate on
+     * @param colName                       The name of the super column
+     * @param subColumns                    A list of the sub-columns to write
+     * @return                              A future that completes when the write has been executed
+     * @throws InterruptedException if interrupted while waiting for pending writes to complete
+     */
+    public Future<Void> writeSubColumns(Bytes rowKey, String colFamily, Bytes colName, List<Column> subColumns) throws InterruptedException {
+        SuperColumn scol = new SuperColumn(nullSafeGet(colName), subColumns);
+        ColumnOrSuperColumn cosc = new ColumnOrSuperColumn();
+        cosc.setSuper_column(scol);
+        Mutation mutation = new Mutation();
+        mutation.setColumn_or_supercolumn(cosc);
+        return enqueue(rowKey, colFamily, mutation, AdaptivePageSizer.estimateSize(scol));
+    }
+
+    /**
+     * Delete a column or super column.
+     * @param rowKey                        The key of the row to modify
+     * @param colFamily                     The name of the column family to modify
+     * @param colName                       The name of the column or super column to delete
+     * @return                              A future that completes when the deletion has been executed
+     * @throws InterruptedException if interrupted while waiting for pending writes to complete
+     */
+    public Future<Void> deleteColumn(Bytes rowKey, String colFamily, Bytes colName) throws InterruptedException {
+        List<Bytes> colNames = new ArrayList<Bytes>(1);
+        colNames.add(colName);
+        return deleteColumns(rowKey, colFamily, colNames);
+    }
+
+    /**
+     * Delete a list of columns or super columns.
+     * @param rowKey                        The key of the row to modify
+     * @param colFamily                     The name of the column family to modify
+     * @param colNames                      The column and/or super column names to delete
+     * @return                              A future that completes when the deletion has been executed
+     * @throws InterruptedException if interrupted while waiting for pending writes to complete
+     */
+    public Future<Void> deleteColumns(Bytes rowKey, String colFamily, List<Bytes> colNames) throws InterruptedException {
+        SlicePredicate pred = new SlicePredicate();
+        pred.setColumn_names(transform(colNames));
+        Deletion deletion = new Deletion(newClock());
+        deletion.setPredicate(pred);
+        Mutation mutation = new Mutation();
+        mutation.setDeletion(deletion);
+        int weight = 0;
+        for (Bytes colName : colNames)
+            weight += colName.length();
+        return enqueue(rowKey, colFamily, mutation, weight);
+    }
+
+    /**
+     * Create new Column object with the current time as its time stamp.
+     * @param colName                       The column name
+     * @param colValue                      The column value
+     * @return                              An appropriate <code>Column</code> object
+     */
+    public Column newColumn(String colName, String colValue) {
+        return newColumn(fromUTF8(colName), fromUTF8(colValue));
+    }
+
+    /**
+     * Create new Column object with the current time as its time stamp.
+     * @param colName                       The column name
+     * @param colValue                      The column value
+     * @return                              An appropriate <code>Column</code> object
+     */
+    public Column newColumn(Bytes colName, Bytes colValue) {
+        return new Column(nullSafeGet(colName), nullSafeGet(colValue), newClock());
+    }
+
+    /**
+     * Send the writes that are currently waiting to be batched without waiting for the linger time.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            flushRequested = true;
+            batchReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting writes, send the writes that are waiting to be batched, and wait for all batches to complete.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown() throws InterruptedException {
+        lock.lock();
+        try {
+            shutdown = true;
+            batchReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        flusher.join();
+        senders.shutdown();
+        senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the number of writes and deletions that have been accepted.
+     * @return                              The write count
+     */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * Get the number of batches that have been sent.
+     * @return                              The batch count
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Get the number of batches that failed.
+     * @return                              The failed batch count
+     */
+    public long getFailedBatchCount() {
+        return failedBatches.get();
+    }
+
+    /**
+     * Get the approximate size in bytes of the writes that have been accepted but have not yet completed.
+     * @return                              The pending size
+     */
+    public int getPendingBytes() {
+        return policy.getMaxPendingBytes() - pendingBytes.availablePermits();
+    }
+
+    private Future<Void> enqueue(Bytes rowKey, String colFamily, Mutation mutation, int weight) throws InterruptedException {
+        if (shutdown)
+            throw new IllegalStateException("The batching mutator has been shut down");
+        weight += rowKey.length() + MUTATION_OVERHEAD;
+        // A single write larger than the bound must still be accepted once nothing else is pending
+        int permits = Math.min(weight, policy.getMaxPendingBytes());
+        pendingBytes.acquire(permits);
+        Write write = new Write(rowKey, colFamily, mutation, permits);
+        lock.lock();
+        try {
+            if (shutdown) {
+                pendingBytes.release(permits);
+                throw new IllegalStateException("The batching mutator has been shut down");
+            }
+            if (batch.isEmpty())
+                batchStarted = System.nanoTime();
+            batch.add(write);
+            batchRows.add(rowKey);
+            batchBytes += weight;
+            if (batch.size() == 1 || isBatchFull())
+                batchReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        writes.increment();
+        return write.future;
+    }
+
+    private boolean isBatchFull() {
+        return batchRows.size() >= policy.getMaxBatchRows() || batchBytes >= policy.getMaxBatchBytes();
+    }
+
+    private void flushBatches() {
+        try {
+            while (true) {
+                List<Write> toSend;
+                lock.lock();
+                try {
+                    while (batch.isEmpty()) {
+                        if (shutdown)
+                            return;
+                        flushRequested = false;
+                        batchReady.await();
+                    }
+                    long lingerNanos = policy.getLingerMillis() * 1000000L;
+                    while (!isBatchFull() && !flushRequested && !shutdown) {
+                        long remaining = lingerNanos - (System.nanoTime() - batchStarted);
+                        if (remaining <= 0)
+                            break;
+                        batchReady.awaitNanos(remaining);
+                    }
+                    toSend = batch;
+                    batch = new ArrayList<Write>();
+                    batchRows.clear();
+                    batchBytes = 0;
+                    flushRequested = false;
+                } finally {
+                    lock.unlock();
+                }
+                senders.execute(new BatchSender(toSend));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Clock newClock() {
+        return new Clock(System.currentTimeMillis() * 1000);
+    }
+
+    private class BatchSender implements Runnable {
+        private final List<Write> writes;
+
+        BatchSender(List<Write> writes) {
+            this.writes = writes;
+        }
+
+        @Override
+        public void run() {
+            batches.increment();
+            Mutator mutator = mutators.get();
+            try {
+                for (Write write : writes)
+                    mutator.addMutation(write.rowKey, write.colFamily, write.mutation);
+                mutator.execute(cLevel);
+                for (Write write : writes)
+                    write.future.succeeded();
+            } catch (Exception e) {
+                failedBatches.increment();
+                logger.warn("Batch of {} writes failed: {}", writes.size(), e.getMessage());
+                for (Write write : writes)
+                    write.future.failed(e);
+            } catch (Error e) {
+                for (Write write : writes)
+                    write.future.failed(e);
+                throw e;
+            } finally {
+                mutator.reset();
+                int permits = 0;
+                for (Write write : writes)
+                    permits += write.permits;
+                pendingBytes.release(permits);
+            }
+        }
+    }
+
+    private static class Write {
+        private final Bytes rowKey;
+        private final String colFamily;
+        private final Mutation mutation;
+        private final int permits;
+        private final WriteFuture future = new WriteFuture();
+
+        Write(Bytes rowKey, String colFamily, Mutation mutation, int permits) {
+            this.rowKey = rowKey;
+            this.colFamily = colFamily;
+            this.mutation = mutation;
+            this.permits = permits;
+        }
+    }
+
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    /**
+     * The future returned for a write. It cannot be cancelled, since its batch may already have been sent.
+     */
+    private static class WriteFuture extends FutureTask<Void> {
+        WriteFuture() {
+            super(NO_OP, null);
+        }
+
+        void succeeded() {
+            set(null);
+        }
+
+        void failed(Throwable t) {
+            setException(t);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+    }
+
+    /**
+     * Determines when batches are sent and how many writes may be pending.
+     */
+    public static class Policy {
+        int maxBatchRows = 500;
+        int maxBatchBytes = 1024 * 1024;
+        int lingerMillis = 5;
+        int maxPendingBytes = 32 * 1024 * 1024;
+        int maxConcurrentBatches = 4;
+
+        public Policy() {
+        }
+
+        public int getMaxBatchRows() {
+            return maxBatchRows;
+        }
+
+        /**
+         * Set the number of distinct rows at which a batch is sent. Default to 500.
+         */
+        public void setMaxBatchRows(int maxBatchRows) {
+            this.maxBatchRows = maxBatchRows;
+        }
+
+        public int getMaxBatchBytes() {
+            return maxBatchBytes;
+        }
+
+        /**
+         * Set the approximate size in bytes at which a batch is sent. Default to 1MB.
+         */
+        public void setMaxBatchBytes(int maxBatchBytes) {
+            this.maxBatchBytes = maxBatchBytes;
+        }
+
+        public int getLingerMillis() {
+            return lingerMillis;
+        }
+
+        /**
+         * Set the maximum time in milliseconds a write waits for other writes to join its batch. Default to 5.
+         */
+        public void setLingerMillis(int lingerMillis) {
+            this.lingerMillis = lingerMillis;
+        }
+
+        public int getMaxPendingBytes() {
+            return maxPendingBytes;
+        }
+
+        /**
+         * Set the approximate size in bytes of the writes that may be pending before further writes block. Default to 32MB.
+         */
+        public void setMaxPendingBytes(int maxPendingBytes) {
+            this.maxPendingBytes = maxPendingBytes;
+        }
+
+        public int getMaxConcurrentBatches() {
+            return maxConcurrentBatches;
+        }
+
+        /**
+         * Set the number of batches that may be in flight at once. Default to 4.
+         */
+        public void setMaxConcurrentBatches(int maxConcurrentBatches) {
+            this.maxConcurrentBatches = maxConcurrentBatches;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.cliffc.high_scale_lib.Counter;
+import org.wyki.cassandra.pelops.ThriftPool.Connection;
+
+import static org.wyki.cassandra.pelops.Bytes.fromUTF8;
+
+/**
+ * Retrieves columns from single rows on behalf of many threads by collecting their requests into batches that are
+ * sent to Cassandra as a single <code>multiget_slice</code>. Requests for the same column parent with the same
+ * predicate and consistency level are batched together. The first request of a batch waits for up to the batch window
+ * for other requests to join it, or until the batch reaches its maximum size, and then performs the read for the whole
+ * batch. Each caller receives only the columns of its own row.
+ * <p>Unlike <code>Selector</code>, a <code>BatchingReader</code> is intended to be long-lived and shared between
+ * threads. The lists it returns are unmodifiable.
+ */
+public class BatchingReader extends Operand {
+    private final int maxBatchSize;
+    private final int batchWindow;
+    private final ConcurrentHashMap<Bytes, Batch> openBatches = new ConcurrentHashMap<Bytes, Batch>();
+    private final Counter requests = new Counter();
+    private final Counter batches = new Counter();
+
+    /**
+     * Create a batching reader.
+     * @param thrift                        The pool used to perform reads
+     * @param maxBatchSize                  The maximum number of rows read by a single <code>multiget_slice</code>
+     * @param batchWindow                   The maximum time in milliseconds a request waits for other requests to join its batch
+     */
+    public BatchingReader(ThriftPool thrift, int maxBatchSize, int batchWindow) {
+        super(thrift);
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("The maximum batch size must be positive");
+        this.maxBatchSize = maxBatchSize;
+        this.batchWindow = batchWindow;
+    }
+
+    /**
+     * Retrieve columns from a row.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the columns
+     * @param colPredicate                  The column selector predicate
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              A list of matching columns
+     * @throws Exception if an error occurs
+     */
+    public List<Column> getColumnsFromRow(String rowKey, String columnFamily, SlicePredicate colPredicate, ConsistencyLevel cLevel) throws Exception {
+        return getColumnsFromRow(fromUTF8(rowKey), new ColumnParent(columnFamily), colPredicate, cLevel);
+    }
+
+    /**
+     * Retrieve columns from a row.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the columns
+     * @param colPredicate                  The column selector predicate
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              A list of matching columns
+     * @throws Exception if an error occurs
+     */
+    public List<Column> getColumnsFromRow(Bytes rowKey, String columnFamily, SlicePredicate colPredicate, ConsistencyLevel cLevel) throws Exception {
+        return getColumnsFromRow(rowKey, new ColumnParent(columnFamily), colPredicate, cLevel);
+    }
+
+    /**
+     * Retrieve sub-columns from a super column in a row.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the super columns
+     * @param superColName                  The name of the super column
+     * @param colPredicate                  The sub-column selector predicate
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              A list of matching columns
+     * @throws Exception if an error occurs
+     */
+    public List<Column> getSubColumnsFromRow(Bytes rowKey, String columnFamily, Bytes superColName, SlicePredicate colPredicate, ConsistencyLevel cLevel) throws Exception {
+        ColumnParent colParent = new ColumnParent(columnFamily);
+        colParent.setSuper_column(Bytes.nullSafeGet(superColName));
+        return getColumnsFromRow(rowKey, colParent, colPredicate, cLevel);
+    }
+
+    /**
+     * Get the number of single-row requests that have been made.
+     * @return                              The request count
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Get the number of <code>multiget_slice</code> operations that have been performed.
+     * @return                              The batch count
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    private List<Column> getColumnsFromRow(Bytes rowKey, ColumnParent colParent, SlicePredicate colPredicate, ConsistencyLevel cLevel) throws Exception {
+        requests.increment();
+        Bytes batchKey = new CacheKeyBuilder().append(colParent.getColumn_family())
+                .append(colParent.getSuper_column()).append(colPredicate).append(cLevel.getValue()).toBytes();
+        Batch batch;
+        boolean leader = false;
+        while (true) {
+            batch = openBatches.get(batchKey);
+            if (batch == null) {
+                Batch newBatch = new Batch(colParent, colPredicate, cLevel);
+                batch = openBatches.putIfAbsent(batchKey, newBatch);
+                if (batch == null) {
+                    batch = newBatch;
+                    leader = true;
+                }
+            }
+            if (batch.add(rowKey, maxBatchSize)) {
+                if (batch.isClosed())
+                    openBatches.remove(batchKey, batch);
+                break;
+            }
+            // The batch closed before we could join it, so it will already have been removed or is about to be
+            openBatches.remove(batchKey, batch);
+        }
+
+        if (leader) {
+            try {
+                batch.full.await(batchWindow, TimeUnit.MILLISECONDS);
+            } finally {
+                // Even if the leader is interrupted, the batch must be sent so that the rows that joined it are answered
+                batch.close();
+                openBatches.remove(batchKey, batch);
+                batch.execute();
+            }
+        }
+        return batch.getResult(rowKey);
+    }
+
+    private class Batch {
+        private final ColumnParent colParent;
+        private final SlicePredicate colPredicate;
+        private final ConsistencyLevel cLevel;
+        private final Set<Bytes> rowKeys = new LinkedHashSet<Bytes>();
+        private final CountDownLatch full = new CountDownLatch(1);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private boolean closed = false;
+        private volatile Map<Bytes, List<Column>> results;
+        private volatile Exception exception;
+
+        Batch(ColumnParent colParent, SlicePredicate colPredicate, ConsistencyLevel cLevel) {
+            this.colParent = colParent;
+            this.colPredicate = colPredicate;
+            this.cLevel = cLevel;
+        }
+
+        synchronized boolean add(Bytes rowKey, int maxSize) {
+            if (closed)
+                return false;
+            rowKeys.add(rowKey);
+            if (rowKeys.size() >= maxSize) {
+                closed = true;
+                full.countDown();
+            }
+            return true;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
+        void execute() {
+            final List<byte[]> keys;
+            synchronized (this) {
+                keys = new ArrayList<byte[]>(rowKeys.size());
+                for (Bytes rowKey : rowKeys)
+                    keys.add(rowKey.getBytes());
+            }
+            batches.increment();
+            try {
+                IOperation<Map<Bytes, List<Column>>> operation = new IOperation<Map<Bytes, List<Column>>>() {
+                    @Override
+                    public Map<Bytes, List<Column>> execute(Connection conn) throws Exception {
+                        Map<byte[], List<ColumnOrSuperColumn>> apiResult = conn.getAPI().multiget_slice(keys, colParent, colPredicate, cLevel);
+                        ValueCompressor compressor = thrift.getGeneralPolicy().getValueCompressor(colParent.getColumn_family());
+                        if (compressor != null)
+                            compressor.decompressRows(apiResult);
+                        Map<Bytes, List<Column>> result = new HashMap<Bytes, List<Column>>(apiResult.size() * 2);
+                        for (Map.Entry<byte[], List<ColumnOrSuperColumn>> entry : apiResult.entrySet()) {
+                            List<Column> columns = new ArrayList<Column>(entry.getValue().size());
+                            for (ColumnOrSuperColumn cosc : entry.getValue())
+                                columns.add(cosc.column);
+                            result.put(Bytes.fromBytes(entry.getKey()), Collections.unmodifiableList(columns));
+                        }
+                        return result;
+                    }
+                };
+                results = tryOperation(operation);
+            } catch (Exception e) {
+                exception = e;
+            } finally {
+                if (results == null && exception == null)
+                    exception = new IllegalStateException("The batched read did not complete");
+                done.countDown();
+            }
+        }
+
+        List<Column> getResult(Bytes rowKey) throws Exception {
+            done.await();
+            if (exception != null)
+                throw exception;
+            List<Column> columns = results.get(rowKey);
+            return columns != null ? columns : Collections.<Column>emptyList();
+        }
+    }
+}
@@ -0,0 +1,544 @@
+package org.wyki.cassandra.pelops;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.cliffc.high_scale_lib.Counter;
+import org.slf4j.Logger;
+import org.wyki.portability.SystemProxy;
+
+/**
+ * Loads rows into Cassandra from files with one record per line, either JSON objects (JSONL) or comma separated values
+ * with a header line (CSV). The input is read in chunks of lines, which are parsed in parallel by several parser
+ * threads. Each parsed record is passed to a {@link RecordMapper}, which adds the mutations for the record to a
+ * <code>Mutator</code>. A parser sends its <code>Mutator</code> to a bounded queue once the batch reaches a given number
+ * of rows or size, and writer threads take the batches from the queue and execute them. When the writers fall behind,
+ * the queues fill and reading pauses, so the memory used by a load is bounded however large the input is.
+ * <p>Progress is logged periodically, and can be read from the counters of the loader. A loader performs one load at
+ * a time, and may be used for several loads in turn.
+ */
+public class BulkLoader {
+    private static final Logger logger = SystemProxy.getLoggerFromFactory(BulkLoader.class);
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final int POLL_MILLIS = 100;
+
+    /**
+     * The formats of input that can be loaded.
+     */
+    public enum Format {
+        /**
+         * A JSON object on each line.
+         */
+        JSONL,
+        /**
+         * Separated values on each line, with the names of the fields on the first line.
+         */
+        CSV
+    }
+
+    /**
+     * Maps the records of the input to mutations. The mapper is called concurrently by the parser threads, and so must
+     * be thread-safe.
+     */
+    public interface RecordMapper {
+        /**
+         * Add the mutations for a record to a batch. If the mapper throws an exception, the record is counted as a
+         * parse error, but any mutations it has already added are still written.
+         * @param record                    The fields of the record, in the order they were read. For CSV input the
+         *                                  values are strings; for JSON input they are as described by the parser.
+         * @param mutator                   The batch to add the mutations to. Its time stamp is the time the batch
+         *                                  was started.
+         * @throws Exception if the record cannot be mapped
+         */
+        void map(Map<String, Object> record, Mutator mutator) throws Exception;
+    }
+
+    private final ThriftPool thrift;
+    private final ConsistencyLevel cLevel;
+    private final RecordMapper mapper;
+    private final Policy policy;
+
+    private final Counter records = new Counter();
+    private final Counter rows = new Counter();
+    private final Counter batches = new Counter();
+    private final Counter parseErrors = new Counter();
+    private volatile long startTime;
+    private volatile long endTime;
+
+    /**
+     * Create a bulk loader.
+     * @param thrift                        The pool used to execute batches
+     * @param cLevel                        The Cassandra consistency level with which batches are executed
+     * @param mapper                        Maps records to mutations
+     * @param policy                        Determines the parallelism and batch sizes of a load
+     */
+    public BulkLoader(ThriftPool thrift, ConsistencyLevel cLevel, RecordMapper mapper, Policy policy) {
+        this.thrift = thrift;
+        this.cLevel = cLevel;
+        this.mapper = mapper;
+        this.policy = policy;
+    }
+
+    /**
+     * Load the records of a file.
+     * @param file                          The file, encoded as UTF-8
+     * @param format                        The format of the file
+     * @return                              The number of rows written
+     * @throws Exception if a batch fails, too many records cannot be parsed, or the file cannot be read
+     */
+    public long load(File file, Format format) throws Exception {
+        InputStream in = new FileInputStream(file);
+        try {
+            return load(in, format);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Load the records of a stream. The stream is not closed.
+     * @param in                            The stream, encoded as UTF-8
+     * @param format                        The format of the stream
+     * @return                              The number of rows written
+     * @throws Exception if a batch fails, too many records cannot be parsed, or the stream cannot be read
+     */
+    public synchronized long load(InputStream in, Format format) throws Exception {
+        records.set(0);
+        rows.set(0);
+        batches.set(0);
+        parseErrors.set(0);
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        try {
+            new Load(format).run(new BufferedReader(new InputStreamReader(in, "UTF-8"), READ_BUFFER_SIZE));
+        } finally {
+            endTime = System.currentTimeMillis();
+        }
+        logger.info("Bulk load wrote {} rows from {} records in {} ms ({} rows/sec)",
+                new Object[] { rows.get(), records.get(), endTime - startTime, getRowsPerSecond() });
+        return rows.get();
+    }
+
+    /**
+     * Get the number of records read by the current or last load.
+     * @return                              The record count
+     */
+    public long getRecordCount() {
+        return records.get();
+    }
+
+    /**
+     * Get the number of rows written by the current or last load. A row written by several batches is counted once
+     * for each batch.
+     * @return                              The row count
+     */
+    public long getRowCount() {
+        return rows.get();
+    }
+
+    /**
+     * Get the number of batches executed by the current or last load.
+     * @return                              The batch count
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Get the number of records of the current or last load that could not be parsed or mapped.
+     * @return                              The parse error count
+     */
+    public long getParseErrorCount() {
+        return parseErrors.get();
+    }
+
+    /**
+     * Get the rate at which rows have been written by the current or last load.
+     * @return                              The number of rows written per second
+     */
+    public long getRowsPerSecond() {
+        long end = endTime != 0 ? endTime : System.currentTimeMillis();
+        long elapsed = Math.max(end - startTime, 1);
+        return rows.get() * 1000 / elapsed;
+    }
+
+    private static class Chunk {
+        private final long firstLine;
+        private final List<String> lines;
+
+        Chunk(long firstLine, List<String> lines) {
+            this.firstLine = firstLine;
+            this.lines = lines;
+        }
+    }
+
+    private static final Chunk END_OF_INPUT = new Chunk(0, null);
+
+    /**
+     * The state of a single load.
+     */
+    private class Load {
+        private final Format format;
+        private final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<Chunk>(policy.getQueueCapacity());
+        private final BlockingQueue<Mutator> pending = new ArrayBlockingQueue<Mutator>(policy.getQueueCapacity());
+        private final ConcurrentLinkedQueue<Mutator> spareMutators = new ConcurrentLinkedQueue<Mutator>();
+        /**
+         * Marks the end of the batches in the queue.
+         */
+        private final Mutator endOfBatches = thrift.createMutator();
+        private volatile List<String> header;
+        private volatile Exception failure;
+
+        Load(Format format) {
+            this.format = format;
+        }
+
+        void run(BufferedReader reader) throws Exception {
+            ExecutorService executor = Executors.newFixedThreadPool(policy.getParserThreads() + policy.getWriterThreads(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "pelops-bulk-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                List<Future<Object>> parsers = new ArrayList<Future<Object>>();
+                for (int i = 0; i < policy.getParserThreads(); i++) {
+                    parsers.add(executor.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            parse();
+                            return null;
+                        }
+                    }));
+                }
+                List<Future<Object>> writers = new ArrayList<Future<Object>>();
+                for (int i = 0; i < policy.getWriterThreads(); i++) {
+                    writers.add(executor.submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            write();
+                            return null;
+                        }
+                    }));
+                }
+
+                try {
+                    read(reader);
+                } catch (Exception e) {
+                    fail(e);
+                }
+                for (int i = 0; i < parsers.size(); i++)
+                    put(chunks, END_OF_INPUT);
+                await(parsers);
+                for (int i = 0; i < writers.size(); i++)
+                    put(pending, endOfBatches);
+                await(writers);
+            } finally {
+                executor.shutdownNow();
+            }
+            if (failure != null)
+                throw failure;
+        }
+
+        private void read(BufferedReader reader) throws Exception {
+            long lineNumber = 0;
+            if (format == Format.CSV) {
+                String line = reader.readLine();
+                if (line == null)
+                    return;
+                lineNumber++;
+                header = new RecordParser().parseCsv(line, policy.getSeparator());
+            }
+            long lastReport = System.currentTimeMillis();
+            List<String> lines = new ArrayList<String>(policy.getChunkLines());
+            long firstLine = lineNumber + 1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                lines.add(line);
+                if (lines.size() >= policy.getChunkLines()) {
+                    if (!put(chunks, new Chunk(firstLine, lines)))
+                        return;
+                    lines = new ArrayList<String>(policy.getChunkLines());
+                    firstLine = lineNumber + 1;
+                    long now = System.currentTimeMillis();
+                    if (now - lastReport >= policy.getReportInterval()) {
+                        logger.info("Bulk load has read {} records and written {} rows ({} rows/sec)",
+                                new Object[] { records.get(), rows.get(), getRowsPerSecond() });
+                        lastReport = now;
+                    }
+                }
+            }
+            if (!lines.isEmpty())
+                put(chunks, new Chunk(firstLine, lines));
+        }
+
+        private void parse() {
+            RecordParser parser = new RecordParser();
+            Mutator mutator = null;
+            Chunk chunk;
+            while ((chunk = take(chunks)) != null && chunk != END_OF_INPUT) {
+                for (int i = 0; i < chunk.lines.size(); i++) {
+                    String line = chunk.lines.get(i);
+                    if (line.trim().length() == 0)
+                        continue;
+                    records.increment();
+                    if (mutator == null)
+                        mutator = newMutator();
+                    try {
+                        mapper.map(parseRecord(parser, line), mutator);
+                    } catch (Exception e) {
+                        if (!parseError(chunk.firstLine + i, e))
+                            return;
+                    }
+                    if (mutator.getRowCount() >= policy.getMaxBatchRows() || mutator.getEstimatedSize() >= policy.getMaxBatchBytes()) {
+                        if (!put(pending, mutator))
+                            return;
+                        mutator = null;
+                    }
+                }
+            }
+            if (chunk != null && mutator != null && mutator.getMutationCount() > 0)
+                put(pending, mutator);
+        }
+
+        private void write() {
+            Mutator mutator;
+            while ((mutator = take(pending)) != null && mutator != endOfBatches) {
+                int batchRows = mutator.getRowCount();
+                try {
+                    mutator.execute(cLevel);
+                } catch (Exception e) {
+                    fail(e);
+                    return;
+                }
+                rows.add(batchRows);
+                batches.increment();
+                mutator.reset();
+                spareMutators.offer(mutator);
+            }
+        }
+
+        private Map<String, Object> parseRecord(RecordParser parser, String line) {
+            if (format == Format.JSONL)
+                return parser.parseJson(line);
+            List<String> values = parser.parseCsv(line, policy.getSeparator());
+            Map<String, Object> record = new LinkedHashMap<String, Object>(header.size() * 4 / 3 + 1);
+            for (int i = 0; i < header.size() && i < values.size(); i++)
+                record.put(header.get(i), values.get(i));
+            return record;
+        }
+
+        private Mutator newMutator() {
+            // Mutators are recycled once their batches have been written, and given the current time stamp
+            Mutator mutator = spareMutators.poll();
+            if (mutator == null)
+                return thrift.createMutator();
+            mutator.reset();
+            return mutator;
+        }
+
+        /**
+         * Record a record that could not be parsed or mapped, and determine whether the load can continue.
+         */
+        private boolean parseError(long lineNumber, Exception e) {
+            parseErrors.increment();
+            logger.warn("Bulk load could not load the record on line {}: {}", lineNumber, e.getMessage());
+            if (parseErrors.get() > policy.getMaxParseErrors()) {
+                fail(new IllegalArgumentException("Bulk load aborted after " + parseErrors.get() + " records could not be loaded; last error on line " + lineNumber, e));
+                return false;
+            }
+            return true;
+        }
+
+        private synchronized void fail(Exception e) {
+            if (failure == null)
+                failure = e;
+        }
+
+        /**
+         * Put an item in a queue, waiting for space if necessary.
+         * @return                          Whether the item was queued, which it is not if the load has failed
+         */
+        private <T> boolean put(BlockingQueue<T> queue, T item) {
+            try {
+                while (failure == null) {
+                    if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS))
+                        return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+            return false;
+        }
+
+        /**
+         * Take an item from a queue, waiting for one if necessary.
+         * @return                          The item, or null if the load has failed
+         */
+        private <T> T take(BlockingQueue<T> queue) {
+            try {
+                while (failure == null) {
+                    T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (item != null)
+                        return item;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+            return null;
+        }
+
+        private void await(List<Future<Object>> futures) throws InterruptedException {
+            for (Future<Object> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    fail(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines the parallelism and batch sizes of a load.
+     */
+    public static class Policy {
+        int parserThreads = Runtime.getRuntime().availableProcessors();
+        int writerThreads = 4;
+        int maxBatchRows = 500;
+        int maxBatchBytes = 1024 * 1024;
+        int chunkLines = 1000;
+        int queueCapacity = 64;
+        int maxParseErrors = 0;
+        int reportInterval = 10000;
+        char separator = ',';
+
+        public Policy() {
+        }
+
+        public int getParserThreads() {
+            return parserThreads;
+        }
+
+        /**
+         * Set the number of threads that parse and map records. Default to the number of processors.
+         */
+        public void setParserThreads(int parserThreads) {
+            this.parserThreads = parserThreads;
+        }
+
+        public int getWriterThreads() {
+            return writerThreads;
+        }
+
+        /**
+         * Set the number of threads that execute batches, and so the number of batches that may be in flight at once.
+         * Default to 4.
+         */
+        public void setWriterThreads(int writerThreads) {
+            this.writerThreads = writerThreads;
+        }
+
+        public int getMaxBatchRows() {
+            return maxBatchRows;
+        }
+
+        /**
+         * Set the number of rows at which a batch is queued for writing. Default to 500.
+         */
+        public void setMaxBatchRows(int maxBatchRows) {
+            this.maxBatchRows = maxBatchRows;
+        }
+
+        public int getMaxBatchBytes() {
+            return maxBatchBytes;
+        }
+
+        /**
+         * Set the approximate size in bytes at which a batch is queued for writing. Default to 1MB.
+         */
+        public void setMaxBatchBytes(int maxBatchBytes) {
+            this.maxBatchBytes = maxBatchBytes;
+        }
+
+        public int getChunkLines() {
+            return chunkLines;
+        }
+
+        /**
+         * Set the number of lines passed to a parser thread at a time. Default to 1000.
+         */
+        public void setChunkLines(int chunkLines) {
+            this.chunkLines = chunkLines;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        /**
+         * Set the number of chunks of lines, and of batches, that may wait to be parsed or written. Default to 64.
+         */
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getMaxParseErrors() {
+            return maxParseErrors;
+        }
+
+        /**
+         * Set the number of records that may fail to be parsed or mapped, and are skipped, before the load is aborted.
+         * Default to 0.
+         */
+        public void setMaxParseErrors(int maxParseErrors) {
+            this.maxParseErrors = maxParseErrors;
+        }
+
+        public int getReportInterval() {
+            return reportInterval;
+        }
+
+        /**
+         * Set the interval in milliseconds at which the progress of a load is logged. Default to 10000.
+         */
+        public void setReportInterval(int reportInterval) {
+            this.reportInterval = reportInterval;
+        }
+
+        public char getSeparator() {
+            return separator;
+        }
+
+        /**
+         * Set the character that separates the fields of CSV input. Default to ','.
+         */
+        public void setSeparator(char separator) {
+            this.separator = separator;
+        }
+    }
+}
@@ -1,20 +1,44 @@
 package org.wyki.cassandra.pelops;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
 /**
- * The byte array class.
+ * The byte array class. A <code>Bytes</code> object either wraps a whole array, or is a slice of part of a larger
+ * array that shares its content rather than copying it. Its hash code is computed once and then cached, since
+ * <code>Bytes</code> objects are used as the keys of hash maps throughout Pelops. The content of the array must not be
+ * changed once it has been wrapped.
  */
 public class Bytes {
     public static final Bytes EMPTY = new Bytes(new byte[0]);
     
-    private byte[] bytes;
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private int hash;
+    private volatile byte[] copy;
 
     public Bytes(byte[] bytes) {
         this.bytes = bytes;
+        this.offset = 0;
+        this.length = bytes != null ? bytes.length : 0;
+    }
+
+    /**
+     * Create a slice of part of an array, which shares the content of the array.
+     * @param bytes                     The array
+     * @param offset                    The offset of the slice in the array
+     * @param length                    The length of the slice
+     */
+    public Bytes(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length)
+            throw new IndexOutOfBoundsException("Slice [" + offset + ", " + (offset + length) + ") of an array of length " + bytes.length);
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
     }
 
     /**
@@ -24,13 +48,62 @@ public class Bytes {
      */
     @Override
     public String toString() {
-        return Arrays.toString(this.bytes);
+        return Arrays.toString(getBytes());
     }
 
+    /**
+     * Get the content as an array. If this is a slice, its content is copied into a new array the first time this is
+     * called.
+     * @return the array
+     */
     public byte[] getBytes() {
+        if (offset == 0 && (bytes == null || length == bytes.length))
+            return bytes;
+        byte[] result = copy;
+        if (result == null) {
+            result = new byte[length];
+            System.arraycopy(bytes, offset, result, 0, length);
+            copy = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get the array that holds the content, without copying it. The content starts at {@link #getOffset()}.
+     * @return the array
+     */
+    public byte[] getArray() {
         return bytes;
     }
 
+    /**
+     * Get the offset of the content in the array returned by {@link #getArray()}.
+     * @return the offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Create a slice of part of the content, which shares it rather than copying it.
+     * @param offset                    The offset of the slice in the content
+     * @param length                    The length of the slice
+     * @return the slice
+     */
+    public Bytes slice(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > this.length)
+            throw new IndexOutOfBoundsException("Slice [" + offset + ", " + (offset + length) + ") of bytes of length " + this.length);
+        return new Bytes(bytes, this.offset + offset, length);
+    }
+
+    /**
+     * Get a read-only buffer over the content, which shares it rather than copying it.
+     * @return the buffer, positioned at the start of the content
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes, offset, length).slice().asReadOnlyBuffer();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -38,24 +111,56 @@ public class Bytes {
 
         Bytes byteArray = (Bytes) o;
 
-        if (!Arrays.equals(bytes, byteArray.bytes)) return false;
+        if (length != byteArray.length) return false;
+        if (bytes == null || byteArray.bytes == null) return bytes == byteArray.bytes;
+        // Hashes that have already been computed differ for most unequal keys, without comparing the content
+        int h = hash;
+        int otherH = byteArray.hash;
+        if (h != 0 && otherH != 0 && h != otherH) return false;
+
+        for (int i = 0; i < length; i++)
+            if (bytes[offset + i] != byteArray.bytes[byteArray.offset + i]) return false;
 
         return true;
     }
 
+    /**
+     * Returns the same hash code as {@link java.util.Arrays#hashCode(byte[])} for the content, which is computed once.
+     */
     @Override
     public int hashCode() {
-        return Arrays.hashCode(bytes);
+        int h = hash;
+        if (h == 0 && bytes != null) {
+            h = 1;
+            for (int i = offset, end = offset + length; i < end; i++)
+                h = 31 * h + bytes[i];
+            hash = h;
+        }
+        return h;
     }
 
     public int length() {
-        return this.bytes.length;
+        return this.length;
     }
 
     public static Bytes fromBytes(byte[] value) {
         return value != null ? new Bytes(value) : null;
     }
 
+    /**
+     * Create a <code>Bytes</code> object from the remaining content of a buffer, without changing the buffer's
+     * position. If the buffer is backed by an accessible array, the result is a slice that shares the array.
+     */
+    public static Bytes fromByteBuffer(ByteBuffer value) {
+        if (value == null)
+            return null;
+        if (value.hasArray())
+            return new Bytes(value.array(), value.arrayOffset() + value.position(), value.remaining());
+        byte[] bytes = new byte[value.remaining()];
+        value.duplicate().get(bytes);
+        return new Bytes(bytes);
+    }
+
     public static Bytes fromLong(long value) {
         return new Bytes(NumberHelper.toBytes(value));
     }
@@ -64,6 +169,18 @@ public class Bytes {
         return new Bytes(NumberHelper.toBytes(value));
     }
 
+    public static Bytes fromDouble(double value) {
+        return new Bytes(NumberHelper.toBytes(value));
+    }
+
+    public static Bytes fromFloat(float value) {
+        return new Bytes(NumberHelper.toBytes(value));
+    }
+
+    public static Bytes fromBoolean(boolean value) {
+        return new Bytes(NumberHelper.toBytes(value));
+    }
+
     public static Bytes fromUuid(UUID value) {
         return value != null ? new Bytes(UuidHelper.timeUuidToBytes(value)) : null;
     }
@@ -77,19 +194,43 @@ public class Bytes {
     }
 
     public long toLong() {
-        return NumberHelper.toLong(this.bytes);
+        return NumberHelper.toLong(bytes, offset, length);
     }
 
     public int toInt() {
-        return NumberHelper.toInt(this.bytes);
+        return NumberHelper.toInt(bytes, offset);
+    }
+
+    public double toDouble() {
+        return NumberHelper.toDouble(bytes, offset);
+    }
+
+    public float toFloat() {
+        return NumberHelper.toFloat(bytes, offset);
+    }
+
+    public boolean toBoolean() {
+        return NumberHelper.toBoolean(bytes, offset);
     }
 
     public UUID toUuid() {
-        return UuidHelper.timeUuidFromBytes(this.bytes);
+        if (length != 16)
+            throw new IllegalArgumentException("A UUID must be 16 bytes long, not " + length);
+        return UuidHelper.timeUuidFromBytes(bytes, offset);
     }
 
     public String toUTF8() {
-        return StringHelper.toUTF8(this.bytes);
+        return bytes != null ? StringHelper.toUTF8(bytes, offset, length) : null;
+    }
+
+    /**
+     * Decode the content as UTF-8 through a cache, which returns the same <code>String</code> for repeated content
+     * such as column names.
+     * @param cache                     The cache
+     * @return the string
+     */
+    public String toUTF8(StringHelper.InternCache cache) {
+        return bytes != null ? cache.toUTF8(bytes, offset, length) : null;
     }
 
     public static List<byte[]> transform(List<Bytes> arrays) {
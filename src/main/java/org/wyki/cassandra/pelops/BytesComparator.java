@@ -0,0 +1,197 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.cassandra.thrift.Column;
+
+/**
+ * Orders <code>Bytes</code> in the same way as a Cassandra column family comparator, so that column names can be
+ * sorted, merged and searched on the client. The comparisons work directly on the content of the <code>Bytes</code>,
+ * including slices, and do not allocate. As in Cassandra, an empty name sorts before every other name of the numeric
+ * and UUID types, which is what allows it to be used as the open start of a slice.
+ */
+public abstract class BytesComparator implements Comparator<Bytes> {
+    /**
+     * Orders names by their bytes, compared as unsigned values.
+     */
+    public static final BytesComparator BYTES = new BytesComparator() {
+        @Override
+        public int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+            return compareUnsigned(a, aOffset, aLength, b, bOffset, bLength);
+        }
+    };
+
+    /**
+     * Orders ASCII names, which is the same as ordering their bytes.
+     */
+    public static final BytesComparator ASCII = BYTES;
+
+    /**
+     * Orders UTF-8 names, which is the same as ordering their bytes, since the order of UTF-8 bytes is the order of
+     * the code points they encode.
+     */
+    public static final BytesComparator UTF8 = BYTES;
+
+    /**
+     * Orders names holding 8-byte big-endian longs by their signed value.
+     */
+    public static final BytesComparator LONG = new BytesComparator() {
+        @Override
+        public int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+            if (aLength == 0 || bLength == 0)
+                return compareEmpty(aLength, bLength);
+            // The first byte is signed and the rest are unsigned
+            int diff = a[aOffset] - b[bOffset];
+            if (diff != 0)
+                return diff;
+            return compareUnsigned(a, aOffset + 1, aLength - 1, b, bOffset + 1, bLength - 1);
+        }
+    };
+
+    /**
+     * Orders names holding 16-byte UUIDs as <code>java.util.UUID</code> does, by the signed values of their most and
+     * then least significant halves.
+     */
+    public static final BytesComparator LEXICAL_UUID = new BytesComparator() {
+        @Override
+        public int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+            if (aLength == 0 || bLength == 0)
+                return compareEmpty(aLength, bLength);
+            int result = compareLong(getLong(a, aOffset), getLong(b, bOffset));
+            if (result != 0)
+                return result;
+            return compareLong(getLong(a, aOffset + 8), getLong(b, bOffset + 8));
+        }
+    };
+
+    /**
+     * Orders names holding 16-byte version 1 UUIDs by their time stamps, and then by their bytes.
+     */
+    public static final BytesComparator TIME_UUID = new BytesComparator() {
+        @Override
+        public int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+            if (aLength == 0 || bLength == 0)
+                return compareEmpty(aLength, bLength);
+            int result = compareLong(getTimestamp(a, aOffset), getTimestamp(b, bOffset));
+            if (result != 0)
+                return result;
+            return compareUnsigned(a, aOffset, aLength, b, bOffset, bLength);
+        }
+    };
+
+    /**
+     * Get the comparator for an order type.
+     * @param orderType                     The order type
+     * @return                              The comparator
+     */
+    public static BytesComparator forOrderType(Selector.OrderType orderType) {
+        switch (orderType) {
+            case BytesType:
+                return BYTES;
+            case AsciiType:
+                return ASCII;
+            case UTF8Type:
+                return UTF8;
+            case LongType:
+                return LONG;
+            case LexicalUUIDType:
+                return LEXICAL_UUID;
+            case TimeUUIDType:
+                return TIME_UUID;
+            default:
+                throw new IllegalArgumentException("Unknown order type " + orderType);
+        }
+    }
+
+    /**
+     * Compare two sequences of bytes.
+     * @return                              A negative value, zero or a positive value as the first sequence orders
+     *                                      before, the same as or after the second
+     */
+    public abstract int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength);
+
+    @Override
+    public int compare(Bytes a, Bytes b) {
+        return compare(a.getArray(), a.getOffset(), a.length(), b.getArray(), b.getOffset(), b.length());
+    }
+
+    /**
+     * Compare two arrays of bytes, such as the names of Thrift columns.
+     * @see #compare(byte[], int, int, byte[], int, int)
+     */
+    public int compare(byte[] a, byte[] b) {
+        return compare(a, 0, a.length, b, 0, b.length);
+    }
+
+    /**
+     * Get a comparator that orders columns by their names.
+     * @return                              The comparator
+     */
+    public Comparator<Column> columnComparator() {
+        return new Comparator<Column>() {
+            @Override
+            public int compare(Column a, Column b) {
+                return BytesComparator.this.compare(a.name, b.name);
+            }
+        };
+    }
+
+    /**
+     * Search a list of columns sorted by this comparator for a column name.
+     * @param columns                       The columns
+     * @param colName                       The column name
+     * @return                              The index of the column with the name if there is one; otherwise
+     *                                      <code>-(insertion point) - 1</code>, as returned by
+     *                                      <code>Collections.binarySearch</code>
+     */
+    public int binarySearch(List<Column> columns, Bytes colName) {
+        int low = 0;
+        int high = columns.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            byte[] name = columns.get(mid).name;
+            int result = compare(name, 0, name.length, colName.getArray(), colName.getOffset(), colName.length());
+            if (result < 0)
+                low = mid + 1;
+            else if (result > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    static int compareUnsigned(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+            if (diff != 0)
+                return diff;
+        }
+        return aLength - bLength;
+    }
+
+    private static int compareEmpty(int aLength, int bLength) {
+        return aLength == 0 ? (bLength == 0 ? 0 : -1) : 1;
+    }
+
+    private static int compareLong(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        return value;
+    }
+
+    /**
+     * Get the 60-bit time stamp of a version 1 UUID, which is split between its time_low, time_mid and time_hi fields.
+     */
+    private static long getTimestamp(byte[] bytes, int offset) {
+        long msb = getLong(bytes, offset);
+        return ((msb & 0x0fffL) << 48) | (((msb >>> 16) & 0xffffL) << 32) | (msb >>> 32);
+    }
+}
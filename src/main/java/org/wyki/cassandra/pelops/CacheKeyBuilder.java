@@ -0,0 +1,74 @@
+package org.wyki.cassandra.pelops;
+
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+
+/**
+ * Builds cache keys from length-prefixed components, so that distinct components can never produce the same key.
+ */
+class CacheKeyBuilder {
+    private byte[] buffer = new byte[64];
+    private int length = 0;
+
+    CacheKeyBuilder append(byte[] component) {
+        if (component == null)
+            return append(-1);
+        append(component.length);
+        ensureCapacity(component.length);
+        System.arraycopy(component, 0, buffer, length, component.length);
+        length += component.length;
+        return this;
+    }
+
+    CacheKeyBuilder append(String component) {
+        if (component == null)
+            return append(-1);
+        int componentLength = StringHelper.encodedLength(component);
+        append(componentLength);
+        ensureCapacity(componentLength);
+        length += StringHelper.encode(component, buffer, length);
+        return this;
+    }
+
+    CacheKeyBuilder append(int value) {
+        ensureCapacity(4);
+        NumberHelper.toBytes(value, buffer, length);
+        length += 4;
+        return this;
+    }
+
+    CacheKeyBuilder append(byte value) {
+        ensureCapacity(1);
+        buffer[length++] = value;
+        return this;
+    }
+
+    CacheKeyBuilder append(SlicePredicate predicate) {
+        if (predicate == null)
+            return append((byte) 0);
+        if (predicate.getColumn_names() != null) {
+            append((byte) 'N').append(predicate.getColumn_names().size());
+            for (byte[] name : predicate.getColumn_names())
+                append(name);
+        }
+        SliceRange range = predicate.getSlice_range();
+        if (range != null)
+            append((byte) 'R').append(range.getStart()).append(range.getFinish())
+                    .append((byte) (range.isReversed() ? 1 : 0)).append(range.getCount());
+        return this;
+    }
+
+    Bytes toBytes() {
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, 0, bytes, 0, length);
+        return new Bytes(bytes);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.wyki.cassandra.pelops;
+
+import java.io.UnsupportedEncodingException;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.cassandra.thrift.Clock;
+import org.apache.cassandra.thrift.Column;
+
+import static org.wyki.cassandra.pelops.Bytes.fromBytes;
+import static org.wyki.cassandra.pelops.Bytes.fromUTF8;
+
+/**
+ * A read-only view of a list of columns that supports looking up columns by name in constant time. The index is built
+ * the first time a column is looked up, so a view that is only iterated costs no more than the list it wraps. Column
+ * values are not decoded until they are requested.
+ * <p>A <code>ColumnIndex</code> is itself a list of columns, so it can be passed to the static helpers of
+ * <code>Selector</code>, which use the index rather than scanning the list.
+ */
+public class ColumnIndex extends AbstractList<Column> implements RandomAccess {
+    private final List<Column> columns;
+    private volatile HashMap<Bytes, Column> byName;
+
+    /**
+     * Create an index over a list of columns. The list must not be modified after the index has been created.
+     * @param columns                       The list of columns
+     */
+    public ColumnIndex(List<Column> columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Get an index over a list of columns, reusing the list itself if it is already an index.
+     * @param columns                       The list of columns
+     * @return                              The index
+     */
+    public static ColumnIndex of(List<Column> columns) {
+        return columns instanceof ColumnIndex ? (ColumnIndex) columns : new ColumnIndex(columns);
+    }
+
+    @Override
+    public Column get(int index) {
+        return columns.get(index);
+    }
+
+    @Override
+    public int size() {
+        return columns.size();
+    }
+
+    /**
+     * Get a column by name.
+     * @param colName                       The name of the column
+     * @return                              The column, or <code>null</code> if it is not present
+     */
+    public Column getColumn(Bytes colName) {
+        if (colName == null)
+            return null;
+        return index().get(colName);
+    }
+
+    /**
+     * Get a column by name.
+     * @param colName                       The name of the column
+     * @return                              The column, or <code>null</code> if it is not present
+     */
+    public Column getColumn(String colName) {
+        return getColumn(fromUTF8(colName));
+    }
+
+    /**
+     * Determines whether a column is present.
+     * @param colName                       The name of the column
+     * @return                              Whether the column is present
+     */
+    public boolean containsColumn(Bytes colName) {
+        return getColumn(colName) != null;
+    }
+
+    /**
+     * Get the value of a column.
+     * @param colName                       The name of the column
+     * @param defaultValue                  The value to return if the column is not present
+     * @return                              The column value
+     */
+    public Bytes getValue(Bytes colName, Bytes defaultValue) {
+        Column column = getColumn(colName);
+        return column != null ? fromBytes(column.value) : defaultValue;
+    }
+
+    /**
+     * Get the value of a column as a string.
+     * @param colName                       The name of the column
+     * @param defaultValue                  The value to return if the column is not present
+     * @return                              The column value
+     * @throws UnsupportedEncodingException if the value is not a valid UTF-8 string
+     */
+    public String getStringValue(Bytes colName, String defaultValue) throws UnsupportedEncodingException {
+        Column column = getColumn(colName);
+        return column != null ? StringHelper.toUTF8(column.value) : defaultValue;
+    }
+
+    /**
+     * Get the clock of a column.
+     * @param colName                       The name of the column
+     * @return                              The clock, or <code>null</code> if the column is not present
+     */
+    public Clock getClock(Bytes colName) {
+        Column column = getColumn(colName);
+        return column != null ? column.getClock() : null;
+    }
+
+    private HashMap<Bytes, Column> index() {
+        HashMap<Bytes, Column> map = byName;
+        if (map == null) {
+            // Building the map more than once under contention is harmless, since the result is always the same
+            map = new HashMap<Bytes, Column>(columns.size() * 4 / 3 + 1);
+            for (Column column : columns) {
+                Bytes name = fromBytes(column.name);
+                // Keep the first column with a given name, as a scan of the list would
+                if (name != null && !map.containsKey(name))
+                    map.put(name, column);
+            }
+            byName = map;
+        }
+        return map;
+    }
+}
@@ -0,0 +1,387 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Builds and parses column names made of several components, such as a time stamp followed by a user id and an event
+ * type. Each component is written as a type tag followed by an encoding whose unsigned byte order is the natural order
+ * of its values, and is self-delimiting, so that names compare component by component when the column family uses
+ * <code>BytesType</code>:
+ * <ul>
+ * <li>Strings (as UTF-8) and byte arrays are written with each zero byte escaped as <code>0x00 0xFF</code>, and end
+ * with a single zero byte.</li>
+ * <li>Longs are written as 8 big-endian bytes with the sign bit flipped.</li>
+ * <li>Doubles are written as 8 big-endian bytes of their IEEE 754 bits, with every bit flipped for negative values
+ * and only the sign bit for positive ones.</li>
+ * <li>Lexical UUIDs are written as their most and then least significant halves, each with the sign bit flipped, so
+ * they order as <code>java.util.UUID</code> does.</li>
+ * <li>Time UUIDs are written as their 8-byte time stamp followed by their least significant half, so they order by
+ * time.</li>
+ * </ul>
+ * A name is a prefix of every name that extends it with more components, so all the names that start with some
+ * components can be selected with a slice from {@link #toBytes()} to {@link #toPrefixEnd()}. A
+ * <code>CompositeName</code> holds a buffer that grows as needed and is kept by {@link #reset()}, so one instance can
+ * build many names. It is not thread-safe.
+ */
+public class CompositeName {
+    static final byte BYTES = 0x01;
+    static final byte STRING = 0x02;
+    static final byte LONG = 0x03;
+    static final byte DOUBLE = 0x04;
+    static final byte UUID_TYPE = 0x05;
+    static final byte TIME_UUID = 0x06;
+
+    /**
+     * Follows the last component of a prefix, and is greater than the tag of any component that could follow it.
+     */
+    static final byte PREFIX_END = (byte) 0xff;
+
+    private byte[] buffer;
+    private int length;
+
+    public CompositeName() {
+        this(64);
+    }
+
+    /**
+     * Create a composite name.
+     * @param capacity                      The initial size of the buffer
+     */
+    public CompositeName(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Remove all the components, keeping the buffer.
+     * @return                              This name
+     */
+    public CompositeName reset() {
+        length = 0;
+        return this;
+    }
+
+    /**
+     * Append a string component.
+     * @param value                         The string
+     * @return                              This name
+     */
+    public CompositeName add(String value) {
+        int encodedLength = StringHelper.encodedLength(value);
+        ensureCapacity(1 + encodedLength);
+        buffer[length++] = STRING;
+        int start = length;
+        length += StringHelper.encode(value, buffer, start);
+        // Most strings have no zero bytes to escape, and can be left where they were encoded
+        for (int i = start; i < length; i++) {
+            if (buffer[i] == 0) {
+                byte[] encoded = new byte[length - start];
+                System.arraycopy(buffer, start, encoded, 0, encoded.length);
+                length = start;
+                appendEscaped(encoded, 0, encoded.length);
+                return this;
+            }
+        }
+        ensureCapacity(1);
+        buffer[length++] = 0;
+        return this;
+    }
+
+    /**
+     * Append a byte array component.
+     * @param value                         The bytes
+     * @return                              This name
+     */
+    public CompositeName add(Bytes value) {
+        ensureCapacity(1);
+        buffer[length++] = BYTES;
+        appendEscaped(value.getArray(), value.getOffset(), value.length());
+        return this;
+    }
+
+    /**
+     * Append a long component.
+     * @param value                         The long
+     * @return                              This name
+     */
+    public CompositeName add(long value) {
+        ensureCapacity(9);
+        buffer[length++] = LONG;
+        NumberHelper.toBytes(value ^ Long.MIN_VALUE, buffer, length, 8);
+        length += 8;
+        return this;
+    }
+
+    /**
+     * Append a double component.
+     * @param value                         The double
+     * @return                              This name
+     */
+    public CompositeName add(double value) {
+        ensureCapacity(9);
+        buffer[length++] = DOUBLE;
+        long bits = Double.doubleToLongBits(value);
+        NumberHelper.toBytes(bits < 0 ? ~bits : bits ^ Long.MIN_VALUE, buffer, length, 8);
+        length += 8;
+        return this;
+    }
+
+    /**
+     * Append a UUID component, which orders as <code>java.util.UUID</code> does.
+     * @param value                         The UUID
+     * @return                              This name
+     */
+    public CompositeName add(UUID value) {
+        ensureCapacity(17);
+        buffer[length++] = UUID_TYPE;
+        NumberHelper.toBytes(value.getMostSignificantBits() ^ Long.MIN_VALUE, buffer, length, 8);
+        NumberHelper.toBytes(value.getLeastSignificantBits() ^ Long.MIN_VALUE, buffer, length + 8, 8);
+        length += 16;
+        return this;
+    }
+
+    /**
+     * Append a time UUID component, which orders by time.
+     * @param value                         The time UUID
+     * @return                              This name
+     */
+    public CompositeName addTimeUuid(UUID value) {
+        if (value.version() != 1)
+            throw new IllegalArgumentException("Not a time UUID: " + value);
+        ensureCapacity(17);
+        buffer[length++] = TIME_UUID;
+        NumberHelper.toBytes(UuidHelper.msbToTimestamp(value.getMostSignificantBits()), buffer, length, 8);
+        NumberHelper.toBytes(value.getLeastSignificantBits(), buffer, length + 8, 8);
+        length += 16;
+        return this;
+    }
+
+    /**
+     * Get the number of bytes in the name.
+     * @return                              The length
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Get a copy of the name.
+     * @return                              The name
+     */
+    public Bytes toBytes() {
+        byte[] name = new byte[length];
+        System.arraycopy(buffer, 0, name, 0, length);
+        return new Bytes(name);
+    }
+
+    /**
+     * Get a name that orders after this name and every name that extends it with more components, but before any
+     * other name. It is the inclusive end of a slice over the names that start with this one.
+     * @return                              The end of the prefix
+     */
+    public Bytes toPrefixEnd() {
+        byte[] name = new byte[length + 1];
+        System.arraycopy(buffer, 0, name, 0, length);
+        name[length] = PREFIX_END;
+        return new Bytes(name);
+    }
+
+    /**
+     * Get a name that orders immediately after this name, and so before any name that extends it. It is the exclusive
+     * start of a slice of the names that follow this one.
+     * @return                              The following name
+     */
+    public Bytes toSuccessor() {
+        byte[] name = new byte[length + 1];
+        System.arraycopy(buffer, 0, name, 0, length);
+        return new Bytes(name);
+    }
+
+    /**
+     * Parse the components of a name, returning each as a <code>String</code>, <code>Bytes</code>, <code>Long</code>,
+     * <code>Double</code> or <code>UUID</code>. To read components without boxing, use a {@link Reader}.
+     * @param name                          The name
+     * @return                              The components
+     */
+    public static List<Object> parse(Bytes name) {
+        List<Object> components = new ArrayList<Object>();
+        Reader reader = new Reader(name);
+        while (reader.hasNext()) {
+            switch (reader.peekType()) {
+                case BYTES:
+                    components.add(reader.nextBytes());
+                    break;
+                case STRING:
+                    components.add(reader.nextString());
+                    break;
+                case LONG:
+                    components.add(reader.nextLong());
+                    break;
+                case DOUBLE:
+                    components.add(reader.nextDouble());
+                    break;
+                case UUID_TYPE:
+                    components.add(reader.nextUuid());
+                    break;
+                default:
+                    components.add(reader.nextTimeUuid());
+            }
+        }
+        return components;
+    }
+
+    @Override
+    public String toString() {
+        return parse(new Bytes(buffer, 0, length)).toString();
+    }
+
+    private void appendEscaped(byte[] bytes, int offset, int count) {
+        ensureCapacity(count + 1);
+        for (int i = offset; i < offset + count; i++) {
+            buffer[length++] = bytes[i];
+            if (bytes[i] == 0) {
+                ensureCapacity(offset + count - i + 1);
+                buffer[length++] = (byte) 0xff;
+            }
+        }
+        buffer[length++] = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Reads the components of a composite name in order. The type of each component must be the one read, or an
+     * <code>IllegalArgumentException</code> is thrown.
+     */
+    public static class Reader {
+        private final byte[] bytes;
+        private final int end;
+        private int pos;
+
+        /**
+         * Create a reader.
+         * @param name                      The name to read
+         */
+        public Reader(Bytes name) {
+            bytes = name.getArray();
+            pos = name.getOffset();
+            end = pos + name.length();
+        }
+
+        /**
+         * Determines whether there are components left to read.
+         * @return                          Whether there is another component
+         */
+        public boolean hasNext() {
+            return pos < end;
+        }
+
+        public String nextString() {
+            expect(STRING);
+            int start = pos;
+            int terminator = findTerminator();
+            if (terminator < 0) {
+                // There are no escaped zero bytes, so the string can be decoded where it is
+                pos = -terminator;
+                return StringHelper.toUTF8(bytes, start, pos - start - 1);
+            }
+            return StringHelper.toUTF8(unescape(start, terminator));
+        }
+
+        public Bytes nextBytes() {
+            expect(BYTES);
+            int start = pos;
+            int terminator = findTerminator();
+            if (terminator < 0) {
+                pos = -terminator;
+                return new Bytes(bytes, start, pos - start - 1);
+            }
+            return new Bytes(unescape(start, terminator));
+        }
+
+        public long nextLong() {
+            expect(LONG);
+            return readLong() ^ Long.MIN_VALUE;
+        }
+
+        public double nextDouble() {
+            expect(DOUBLE);
+            long bits = readLong();
+            return Double.longBitsToDouble(bits < 0 ? bits ^ Long.MIN_VALUE : ~bits);
+        }
+
+        public UUID nextUuid() {
+            expect(UUID_TYPE);
+            long msb = readLong() ^ Long.MIN_VALUE;
+            return new UUID(msb, readLong() ^ Long.MIN_VALUE);
+        }
+
+        public UUID nextTimeUuid() {
+            expect(TIME_UUID);
+            long msb = UuidHelper.timestampToMsb(readLong());
+            return new UUID(msb, readLong());
+        }
+
+        byte peekType() {
+            return bytes[pos];
+        }
+
+        private void expect(byte type) {
+            if (pos >= end)
+                throw new IllegalArgumentException("No more components");
+            if (bytes[pos] != type)
+                throw new IllegalArgumentException("Expected a component of type " + type + " but found " + bytes[pos]);
+            pos++;
+        }
+
+        private long readLong() {
+            if (pos + 8 > end)
+                throw new IllegalArgumentException("Truncated component");
+            long value = NumberHelper.toLong(bytes, pos, 8);
+            pos += 8;
+            return value;
+        }
+
+        /**
+         * Find the end of an escaped component. If the component has no escaped zero bytes, returns minus the position
+         * after its terminator; otherwise returns the position of its terminator, and leaves the position after it.
+         */
+        private int findTerminator() {
+            boolean escaped = false;
+            for (int i = pos; i < end; i++) {
+                if (bytes[i] != 0)
+                    continue;
+                if (i + 1 < end && bytes[i + 1] == (byte) 0xff) {
+                    escaped = true;
+                    i++;
+                    continue;
+                }
+                if (!escaped)
+                    return -(i + 1);
+                pos = i + 1;
+                return i;
+            }
+            throw new IllegalArgumentException("Unterminated component");
+        }
+
+        private byte[] unescape(int start, int terminator) {
+            byte[] value = new byte[terminator - start];
+            int count = 0;
+            for (int i = start; i < terminator; i++) {
+                value[count++] = bytes[i];
+                if (bytes[i] == 0)
+                    i++;
+            }
+            byte[] result = new byte[count];
+            System.arraycopy(value, 0, result, 0, count);
+            return result;
+        }
+    }
+}
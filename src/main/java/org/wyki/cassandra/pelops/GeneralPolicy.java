@@ -1,10 +1,19 @@
 package org.wyki.cassandra.pelops;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * General policy configuration.
  */
 public class GeneralPolicy {
     int maxOpRetries = 3;
+    boolean coalesceReads = false;
+    int maxBatchMutations = 0;
+    int maxBatchBytes = 0;
+    int maxParallelBatches = 4;
+    boolean coalesceMutations = false;
+    Map<String, ValueCompressor> valueCompressors = new HashMap<String, ValueCompressor>();
 
     public GeneralPolicy() {
     }
@@ -21,4 +30,100 @@ public class GeneralPolicy {
     public void setMaxOpRetries(int maxOpRetries) {
         this.maxOpRetries = maxOpRetries;
     }
+
+    public boolean isCoalesceReads() {
+        return coalesceReads;
+    }
+
+    /**
+     * Whether <code>Selector</code> objects should coalesce identical single-row reads that are in flight at the same
+     * time, so that only one of them is sent to Cassandra. This can be overridden for individual selectors.
+     * Default to false.
+     * @param coalesceReads the value
+     */
+    public void setCoalesceReads(boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+    }
+
+    public int getMaxBatchMutations() {
+        return maxBatchMutations;
+    }
+
+    /**
+     * The maximum number of mutations a <code>Mutator</code> sends in a single <code>batch_mutate</code> call. Larger
+     * batches are split into chunks that are sent separately. Pass 0 for no limit.
+     * Default to 0.
+     * @param maxBatchMutations the value
+     */
+    public void setMaxBatchMutations(int maxBatchMutations) {
+        this.maxBatchMutations = maxBatchMutations;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * The approximate maximum size in bytes of a single <code>batch_mutate</code> call sent by a <code>Mutator</code>.
+     * Larger batches are split into chunks that are sent separately. Pass 0 for no limit.
+     * Default to 0.
+     * @param maxBatchBytes the value
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public int getMaxParallelBatches() {
+        return maxParallelBatches;
+    }
+
+    /**
+     * The maximum number of chunks of a split batch that a <code>Mutator</code> sends at the same time.
+     * Default to 4.
+     * @param maxParallelBatches the value
+     */
+    public void setMaxParallelBatches(int maxParallelBatches) {
+        this.maxParallelBatches = maxParallelBatches;
+    }
+
+    public boolean isCoalesceMutations() {
+        return coalesceMutations;
+    }
+
+    /**
+     * Whether <code>Mutator</code> objects should coalesce the mutations of a batch before sending it, so that each
+     * column is written or deleted at most once. This can be overridden for individual mutators.
+     * Default to false.
+     * @param coalesceMutations the value
+     */
+    public void setCoalesceMutations(boolean coalesceMutations) {
+        this.coalesceMutations = coalesceMutations;
+    }
+
+    /**
+     * Get the compressor for the values of a column family.
+     * @param columnFamily the column family
+     * @return the compressor, or null if values are not compressed
+     */
+    public ValueCompressor getValueCompressor(String columnFamily) {
+        return valueCompressors.get(columnFamily);
+    }
+
+    /**
+     * The compressor used by <code>Mutator</code> and <code>Selector</code> objects for the values of a column family,
+     * which should be set before any are created. Pass null to stop compressing the column family's values.
+     * <p>Every value read from the column family is then expected to start with a compressor's header, so it must only
+     * be set for a column family whose values were all written with one. A value written without a header that
+     * starts with a zero byte, such as a small non-negative long or int encoded by <code>NumberHelper</code>, is
+     * silently misread with its first byte stripped, and one that starts with a one byte usually fails to decompress.
+     * Default to none.
+     * @param columnFamily the column family
+     * @param valueCompressor the value
+     */
+    public void setValueCompressor(String columnFamily, ValueCompressor valueCompressor) {
+        if (valueCompressor != null)
+            valueCompressors.put(columnFamily, valueCompressor);
+        else
+            valueCompressors.remove(columnFamily);
+    }
 }
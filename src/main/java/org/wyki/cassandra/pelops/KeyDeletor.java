@@ -1,8 +1,23 @@
 package org.wyki.cassandra.pelops;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.apache.cassandra.thrift.Clock;
+import org.apache.cassandra.thrift.ColumnParent;
 import org.apache.cassandra.thrift.ColumnPath;
 import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
 import org.wyki.cassandra.pelops.ThriftPool.Connection;
 
 import static org.wyki.cassandra.pelops.Bytes.fromUTF8;
@@ -17,6 +32,28 @@ import static org.wyki.cassandra.pelops.Bytes.nullSafeGet;
 public class KeyDeletor extends Operand {
 
 	private final Clock clock;
+	private int batchSize = 500;
+	private int maxRowsPerSecond = 0;
+
+	/**
+	 * Set the number of rows deleted by each <code>batch_mutate</code> call made by the bulk deletion methods.
+	 * Default to 500.
+	 * @param batchSize					The number of rows
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("The batch size must be positive");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Set the maximum rate at which the bulk deletion methods delete rows, so that large purges do not compete with
+	 * online traffic. Pass 0 for no limit. Default to 0.
+	 * @param maxRowsPerSecond			The maximum number of rows deleted per second
+	 */
+	public void setMaxRowsPerSecond(int maxRowsPerSecond) {
+		this.maxRowsPerSecond = maxRowsPerSecond;
+	}
 
     /**
 	 * Delete all rows with the specified key (that is, for each column family, remove any row that has the
@@ -69,7 +106,97 @@ public class KeyDeletor extends Operand {
 				return null;
 			}
 		};
-		tryOperation(operation);
+		try {
+			tryOperation(operation);
+		} finally {
+			RowCache cache = thrift.getRowCache();
+			if (cache != null)
+				cache.invalidate(columnFamily, rowKey);
+		}
+	}
+
+	/**
+	 * Delete a list of rows from a specified column family. The rows are deleted in batches of row-level deletions,
+	 * several of which are sent at the same time as allowed by the pool's <code>GeneralPolicy</code>, at no more than
+	 * the maximum rate set for this <code>KeyDeletor</code>. If a batch fails, the batches in flight are allowed to
+	 * complete and its exception is thrown, although other batches may have been applied.
+	 * @param rowKeys					The keys of the rows
+	 * @param columnFamily				The column family from which to delete the rows
+	 * @param cLevel					The Cassandra consistency level to be used
+	 * @return							The number of rows deleted
+	 * @throws Exception
+	 */
+	public long deleteRows(List<Bytes> rowKeys, String columnFamily, ConsistencyLevel cLevel) throws Exception {
+		RowDeleter deleter = new RowDeleter(columnFamily, cLevel);
+		for (Bytes rowKey : rowKeys)
+			deleter.add(rowKey);
+		return deleter.finish();
+	}
+
+	/**
+	 * Delete a list of rows from a specified column family.
+	 * @param columnFamily				The column family from which to delete the rows
+	 * @param cLevel					The Cassandra consistency level to be used
+	 * @param rowKeys					The keys of the rows
+	 * @return							The number of rows deleted
+	 * @throws Exception
+	 * @see #deleteRows(List, String, ConsistencyLevel)
+	 */
+	public long deleteRows(String columnFamily, ConsistencyLevel cLevel, String... rowKeys) throws Exception {
+		List<Bytes> rowKeyList = new ArrayList<Bytes>(rowKeys.length);
+		for (String rowKey : rowKeys)
+			rowKeyList.add(fromUTF8(rowKey));
+		return deleteRows(rowKeyList, columnFamily, cLevel);
+	}
+
+	/**
+	 * Delete the rows in a range of keys from a specified column family. The range is scanned a page of keys at a
+	 * time, without reading the rows' columns, and each page is deleted as by
+	 * {@link #deleteRows(List, String, ConsistencyLevel)} while the next is read. Rows that have already been deleted,
+	 * but not yet removed by compaction, are still returned by the scan and are deleted again.
+	 * @param keyRange					A key range selecting the rows, which must be bounded by keys rather than tokens.
+	 * 									Its count is the number of keys read by each page of the scan, which is at
+	 * 									least two, since each page repeats the last key of the page before.
+	 * @param columnFamily				The column family from which to delete the rows
+	 * @param cLevel					The Cassandra consistency level to be used
+	 * @return							The number of rows deleted
+	 * @throws Exception
+	 */
+	public long deleteRows(KeyRange keyRange, final String columnFamily, final ConsistencyLevel cLevel) throws Exception {
+		if (keyRange.start_token != null || keyRange.end_token != null)
+			throw new IllegalArgumentException("Only key ranges bounded by keys can be scanned for deletion");
+		final KeyRange pageRange = new KeyRange(keyRange);
+		if (pageRange.count <= 0)
+			pageRange.setCount(batchSize);
+		// A page of one key would only ever return the key it started from
+		pageRange.setCount(Math.max(pageRange.count, 2));
+		// Read only the keys of the rows, which are returned however few columns are requested
+		final SlicePredicate keysOnly = new SlicePredicate().setSlice_range(new SliceRange(new byte[0], new byte[0], false, 1));
+		IOperation<List<KeySlice>> operation = new IOperation<List<KeySlice>>() {
+			@Override
+			public List<KeySlice> execute(Connection conn) throws Exception {
+				return conn.getAPI().get_range_slices(new ColumnParent(columnFamily), keysOnly, pageRange, cLevel);
+			}
+		};
+
+		RowDeleter deleter = new RowDeleter(columnFamily, cLevel);
+		byte[] lastKey = null;
+		while (true) {
+			List<KeySlice> page = tryOperation(operation);
+			int newKeys = 0;
+			for (KeySlice slice : page) {
+				// Each page after the first starts with the last key of the page before
+				if (lastKey == null || !Arrays.equals(slice.key, lastKey)) {
+					deleter.add(new Bytes(slice.key));
+					newKeys++;
+				}
+			}
+			if (page.size() < pageRange.count || newKeys == 0)
+				break;
+			lastKey = page.get(page.size() - 1).key;
+			pageRange.setStart_key(lastKey);
+		}
+		return deleter.finish();
 	}
 
 	protected KeyDeletor(ThriftPool thrift) {
@@ -80,4 +207,96 @@ public class KeyDeletor extends Operand {
 		super(thrift);
         this.clock = new Clock(clock);
 	}
+
+	/**
+	 * Collects rows into batches of deletions, and sends them in parallel at no more than the maximum rate.
+	 */
+	private class RowDeleter {
+		private final String columnFamily;
+		private final ConsistencyLevel cLevel;
+		private final int maxParallel = Math.max(thrift.getGeneralPolicy().getMaxParallelBatches(), 1);
+		private final Semaphore inFlight = new Semaphore(maxParallel);
+		private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		private final AtomicLong deleted = new AtomicLong();
+		private List<Bytes> rowKeys = new ArrayList<Bytes>(batchSize);
+		private long nextPermitted = System.nanoTime();
+
+		RowDeleter(String columnFamily, ConsistencyLevel cLevel) {
+			this.columnFamily = columnFamily;
+			this.cLevel = cLevel;
+		}
+
+		void add(Bytes rowKey) throws Exception {
+			rowKeys.add(rowKey);
+			if (rowKeys.size() >= batchSize)
+				send();
+		}
+
+		long finish() throws Exception {
+			send();
+			awaitBatches();
+			throwFailure();
+			return deleted.get();
+		}
+
+		private void send() throws Exception {
+			if (failure.get() != null) {
+				awaitBatches();
+				throwFailure();
+			}
+			if (rowKeys.isEmpty())
+				return;
+			throttle(rowKeys.size());
+			final List<Bytes> batch = rowKeys;
+			rowKeys = new ArrayList<Bytes>(batchSize);
+			inFlight.acquire();
+			try {
+				Mutator.chunkExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							deleteBatch(batch);
+							deleted.addAndGet(batch.size());
+						} catch (Exception e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				inFlight.release();
+				throw e;
+			}
+		}
+
+		private void deleteBatch(List<Bytes> batch) throws Exception {
+			Mutator mutator = thrift.createMutator(clock);
+			for (Bytes rowKey : batch) {
+				// A deletion with neither a predicate nor a super column deletes the whole row
+				mutator.addMutation(rowKey, columnFamily, new Mutation().setDeletion(new Deletion(clock)));
+			}
+			mutator.execute(cLevel);
+		}
+
+		private void throttle(int rows) throws InterruptedException {
+			if (maxRowsPerSecond <= 0)
+				return;
+			long now = System.nanoTime();
+			if (nextPermitted > now)
+				TimeUnit.NANOSECONDS.sleep(nextPermitted - now);
+			nextPermitted = Math.max(now, nextPermitted) + rows * 1000000000L / maxRowsPerSecond;
+		}
+
+		private void awaitBatches() throws InterruptedException {
+			inFlight.acquire(maxParallel);
+			inFlight.release(maxParallel);
+		}
+
+		private void throwFailure() throws Exception {
+			Exception e = failure.get();
+			if (e != null)
+				throw e;
+		}
+	}
 }
@@ -61,6 +61,21 @@ public class Metrics extends Operand {
 		return (String) tryOperation(operation);
 	}
 	
+	/**
+	 * Get the class name of the partitioner used by the cluster
+	 * @return							The partitioner class name
+	 * @throws Exception
+	 */
+	public String getPartitioner() throws Exception {
+		IOperation operation = new IOperation() {
+			@Override
+			public Object execute(Connection conn) throws Exception {
+				return conn.getAPI().describe_partitioner();
+			}
+		};
+		return (String) tryOperation(operation);
+	}
+	
 	/**
 	 * Get the mapping of keys to end points (cluster nodes) for this keyspace
 	 * @param keyspace					The keyspace name
@@ -0,0 +1,182 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.thrift.Clock;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SuperColumn;
+
+/**
+ * Reduces the mutations of a row in a column family to the fewest that have the same effect when applied by Cassandra.
+ * Cassandra reconciles mutations by their clocks rather than their order, so:
+ * <ul>
+ * <li>Of several writes to a column, only the one with the highest clock is kept. Where clocks are equal, the write
+ * whose value is greater when compared as unsigned bytes is kept, which is how Cassandra breaks the tie.</li>
+ * <li>A write is dropped if a deletion of the column (or of its super column) has an equal or higher clock, since
+ * deletions win ties.</li>
+ * <li>A deletion of a column is dropped if a write of the column has a higher clock.</li>
+ * <li>Deletions of columns with the same clock are merged into a single <code>Deletion</code>, as are writes of
+ * sub-columns to the same super column.</li>
+ * </ul>
+ * Mutations that delete slice ranges are not understood, and a list containing them is left as it is.
+ */
+class MutationCoalescer {
+    private final Map<Bytes, Column> columns = new LinkedHashMap<Bytes, Column>();
+    private final Map<Bytes, Map<Bytes, Column>> subColumns = new LinkedHashMap<Bytes, Map<Bytes, Column>>();
+    private final Map<Bytes, Clock> deleted = new LinkedHashMap<Bytes, Clock>();
+    private final Map<Bytes, Map<Bytes, Clock>> subDeleted = new LinkedHashMap<Bytes, Map<Bytes, Clock>>();
+
+    private MutationCoalescer() {
+    }
+
+    /**
+     * Coalesce the mutations of a row in a column family.
+     * @param mutations                 The mutations, in the order they were made
+     * @return                          The coalesced mutations, or null if the mutations cannot be coalesced
+     */
+    static List<Mutation> coalesce(List<Mutation> mutations) {
+        if (mutations.size() < 2)
+            return null;
+        MutationCoalescer coalescer = new MutationCoalescer();
+        for (Mutation mutation : mutations)
+            if (!coalescer.add(mutation))
+                return null;
+        return coalescer.toMutations();
+    }
+
+    private boolean add(Mutation mutation) {
+        ColumnOrSuperColumn cosc = mutation.getColumn_or_supercolumn();
+        if (cosc != null) {
+            if (cosc.column != null) {
+                putColumn(columns, cosc.column);
+                return true;
+            }
+            if (cosc.super_column != null) {
+                Map<Bytes, Column> superColumn = getOrCreate(subColumns, new Bytes(cosc.super_column.name));
+                for (Column subColumn : cosc.super_column.columns)
+                    putColumn(superColumn, subColumn);
+                return true;
+            }
+            return false;
+        }
+        Deletion deletion = mutation.getDeletion();
+        if (deletion == null)
+            return false;
+        SlicePredicate predicate = deletion.getPredicate();
+        if (predicate != null && (predicate.slice_range != null || predicate.column_names == null))
+            return false;
+        if (deletion.super_column == null) {
+            if (predicate == null)
+                return false;
+            for (byte[] colName : predicate.column_names)
+                putClock(deleted, new Bytes(colName), deletion.clock);
+        } else if (predicate == null) {
+            // Deleting all the sub-columns of a super column is the same as deleting the super column by name
+            putClock(deleted, new Bytes(deletion.super_column), deletion.clock);
+        } else {
+            Map<Bytes, Clock> superDeleted = getOrCreate(subDeleted, new Bytes(deletion.super_column));
+            for (byte[] subColName : predicate.column_names)
+                putClock(superDeleted, new Bytes(subColName), deletion.clock);
+        }
+        return true;
+    }
+
+    private List<Mutation> toMutations() {
+        List<Mutation> result = new ArrayList<Mutation>();
+        for (Column column : columns.values()) {
+            if (!isShadowed(column.clock, deleted.get(new Bytes(column.name))))
+                result.add(new Mutation().setColumn_or_supercolumn(new ColumnOrSuperColumn().setColumn(column)));
+        }
+        for (Map.Entry<Bytes, Map<Bytes, Column>> superEntry : subColumns.entrySet()) {
+            Clock superClock = deleted.get(superEntry.getKey());
+            Map<Bytes, Clock> superDeleted = subDeleted.get(superEntry.getKey());
+            List<Column> live = new ArrayList<Column>(superEntry.getValue().size());
+            for (Map.Entry<Bytes, Column> subEntry : superEntry.getValue().entrySet()) {
+                Clock clock = subEntry.getValue().clock;
+                if (!isShadowed(clock, superClock) && !isShadowed(clock, superDeleted != null ? superDeleted.get(subEntry.getKey()) : null))
+                    live.add(subEntry.getValue());
+            }
+            if (!live.isEmpty()) {
+                SuperColumn superColumn = new SuperColumn(superEntry.getKey().getBytes(), live);
+                result.add(new Mutation().setColumn_or_supercolumn(new ColumnOrSuperColumn().setSuper_column(superColumn)));
+            }
+        }
+
+        Map<Long, Deletion> deletions = new LinkedHashMap<Long, Deletion>();
+        for (Map.Entry<Bytes, Clock> deletedEntry : deleted.entrySet()) {
+            // A later write replaces whatever the deletion would have removed
+            Column column = columns.get(deletedEntry.getKey());
+            if (column == null || column.clock.getTimestamp() <= deletedEntry.getValue().getTimestamp())
+                addName(deletions, null, deletedEntry.getKey(), deletedEntry.getValue());
+        }
+        for (Map.Entry<Bytes, Map<Bytes, Clock>> superEntry : subDeleted.entrySet()) {
+            Clock superClock = deleted.get(superEntry.getKey());
+            Map<Bytes, Column> superColumn = subColumns.get(superEntry.getKey());
+            Map<Long, Deletion> superDeletions = new LinkedHashMap<Long, Deletion>();
+            for (Map.Entry<Bytes, Clock> deletedEntry : superEntry.getValue().entrySet()) {
+                Clock clock = deletedEntry.getValue();
+                if (isShadowed(clock, superClock))
+                    continue;
+                Column subColumn = superColumn != null ? superColumn.get(deletedEntry.getKey()) : null;
+                if (subColumn == null || subColumn.clock.getTimestamp() <= clock.getTimestamp())
+                    addName(superDeletions, superEntry.getKey(), deletedEntry.getKey(), clock);
+            }
+            for (Deletion deletion : superDeletions.values())
+                result.add(new Mutation().setDeletion(deletion));
+        }
+        for (Deletion deletion : deletions.values())
+            result.add(new Mutation().setDeletion(deletion));
+        return result;
+    }
+
+    /**
+     * Determines whether a write or deletion with a clock is overridden by a deletion with another clock.
+     */
+    private static boolean isShadowed(Clock clock, Clock otherClock) {
+        return otherClock != null && otherClock.getTimestamp() >= clock.getTimestamp();
+    }
+
+    private static void putColumn(Map<Bytes, Column> columns, Column column) {
+        Bytes colName = new Bytes(column.name);
+        Column existing = columns.get(colName);
+        if (existing == null || existing.clock.getTimestamp() < column.clock.getTimestamp() ||
+                (existing.clock.getTimestamp() == column.clock.getTimestamp() && BytesComparator.BYTES.compare(column.value, existing.value) > 0)) {
+            // Keep the column in the position of its first write
+            columns.put(colName, column);
+        }
+    }
+
+    private static void putClock(Map<Bytes, Clock> clocks, Bytes colName, Clock clock) {
+        Clock existing = clocks.get(colName);
+        if (existing == null || existing.getTimestamp() < clock.getTimestamp())
+            clocks.put(colName, clock);
+    }
+
+    private static void addName(Map<Long, Deletion> deletions, Bytes superColName, Bytes colName, Clock clock) {
+        Deletion deletion = deletions.get(clock.getTimestamp());
+        if (deletion == null) {
+            deletion = new Deletion(clock);
+            if (superColName != null)
+                deletion.setSuper_column(superColName.getBytes());
+            deletion.setPredicate(new SlicePredicate().setColumn_names(new ArrayList<byte[]>()));
+            deletions.put(clock.getTimestamp(), deletion);
+        }
+        deletion.getPredicate().getColumn_names().add(colName.getBytes());
+    }
+
+    private static <K, V> Map<K, V> getOrCreate(Map<Bytes, Map<K, V>> maps, Bytes key) {
+        Map<K, V> map = maps.get(key);
+        if (map == null) {
+            map = new LinkedHashMap<K, V>();
+            maps.put(key, map);
+        }
+        return map;
+    }
+}
@@ -2,12 +2,21 @@ package org.wyki.cassandra.pelops;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.cassandra.thrift.*;
+import org.slf4j.Logger;
 import org.wyki.cassandra.pelops.ThriftPool.Connection;
+import org.wyki.portability.SystemProxy;
 
 import static org.wyki.cassandra.pelops.Bytes.fromUTF8;
 import static org.wyki.cassandra.pelops.Bytes.nullSafeGet;
@@ -17,36 +26,394 @@ import static org.wyki.cassandra.pelops.Bytes.transform;
  * Facilitates the mutation of data within a Cassandra keyspace: the desired mutations should first be specified by
  * calling methods such as <code>writeColumn(...)</code>, which should then be sent to Cassandra in a single batch by
  * calling <code>execute(...)</code>. After the desired batch of mutations has been executed, the <code>Mutator</code>
- * object can not be re-used.
+ * object can only be re-used after calling <code>reset(...)</code>, which recycles its internal structures for the next
+ * batch. A <code>Mutator</code> must not be used by more than one thread at a time.
  *
  * @author dominicwilliams
  *
  */
 public class Mutator extends Operand {
+    private static final Logger logger = SystemProxy.getLoggerFromFactory(Mutator.class);
 
     /**
-     * Execute the mutations that have been specified by sending them to Cassandra in a single batch.
+     * Approximate overhead of a deletion in the encoded batch, in addition to the names it deletes.
+     */
+    private static final int MUTATION_OVERHEAD = 24;
+
+    /**
+     * Approximate overheads of the batch, and of each row and column family in it, in the encoded batch.
+     */
+    private static final int BATCH_OVERHEAD = 48;
+    private static final int ROW_OVERHEAD = 10;
+    private static final int COLUMN_FAMILY_OVERHEAD = 9;
+
+    /**
+     * Runs the additional workers that send the chunks of split batches, and of bulk row deletions. The threads are
+     * created on demand and discarded when idle.
+     */
+    static final ExecutorService chunkExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "pelops-mutator-chunk");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private boolean coalesceMutations;
+
+    /**
+     * Set whether the mutations of the batch should be coalesced before it is sent. Of several writes to a column, only
+     * the one Cassandra would keep is sent, which is the one with the highest clock or, where clocks are equal, the
+     * greatest value. Writes that would be removed by a deletion in the batch are dropped, and deletions of columns
+     * with the same clock are merged into a single deletion. Coalescing does not change the result of the batch, but
+     * reduces its size when the same columns are modified repeatedly. The default is taken from the
+     * pool's <code>GeneralPolicy</code>.
+     * @param coalesceMutations         Whether mutations should be coalesced
+     */
+    public void setCoalesceMutations(boolean coalesceMutations) {
+        this.coalesceMutations = coalesceMutations;
+    }
+
+    /**
+     * Execute the mutations that have been specified by sending them to Cassandra in a single batch. If the pool's
+     * <code>GeneralPolicy</code> limits the size of a batch and the mutations exceed it, they are instead split into
+     * chunks that are sent in parallel. The mutations of a row are kept in one chunk, so they are still applied
+     * together, unless the row alone exceeds the limits, in which case it is split and may be partly applied. Each
+     * chunk is retried independently, so a failure only causes the chunk that failed to be sent again. If any chunks
+     * ultimately fail, the exception of the first chunk to fail is thrown and the failures of the others are logged at
+     * warn level, although other chunks may have been applied.
+     * <p>If the pool has a <code>WriteJournal</code>, each chunk that fails because the cluster cannot be reached is
+     * appended to the journal to be replayed later, and only the failures of the other chunks are thrown. While the
+     * journal holds batches that have not yet been replayed, the whole batch is appended to it without being sent, so
+     * that it is acknowledged without waiting for the cluster, and is applied after the batches journaled before it.
      * @param cLevel                    The Cassandra consistency level to be used
      * @throws Exception
      */
     public void execute(final ConsistencyLevel cLevel) throws Exception {
-        final HashMap<byte[], Map<String, List<Mutation>>> convertedBatch = new HashMap<byte[], Map<String, List<Mutation>>>(batch.size());
-        for (Map.Entry<Bytes, Map<String, List<Mutation>>> batchEntry : batch.entrySet()) {
-            convertedBatch.put(batchEntry.getKey().getBytes(), batchEntry.getValue());
+        if (coalesceMutations)
+            coalesce();
+        try {
+            if (journalPending(cLevel))
+                return;
+            GeneralPolicy policy = thrift.getGeneralPolicy();
+            List<Chunk> chunks = new ArrayList<Chunk>();
+            for (Map<Bytes, Map<String, List<Mutation>>> mutations : split(batch, policy.getMaxBatchMutations(), policy.getMaxBatchBytes()))
+                chunks.add(new Chunk(mutations, null));
+            handleFailures(executeChunks(chunks, cLevel, policy.getMaxParallelBatches()), chunks.size(), cLevel);
+        } finally {
+            // Even a failed batch may have been partially applied
+            invalidateCaches();
+        }
+    }
+
+    /**
+     * Execute the mutations that have been specified by grouping them by the token range that owns their rows, and
+     * sending each group directly to a node that holds a replica of the range. The groups are sent in parallel, and
+     * are split further if they exceed the batch size limits of the pool's <code>GeneralPolicy</code>. Sending
+     * mutations to a replica saves the coordinator from forwarding them, which reduces the traffic between nodes during
+     * bulk loads. If no connection to a replica is available, a group is sent to any node. Chunks that fail because
+     * the cluster cannot be reached are journaled as by {@link #execute(ConsistencyLevel)}.
+     * @param cLevel                    The Cassandra consistency level to be used
+     * @param ring                      The token ring of the keyspace (see {@link TokenRing#load(ThriftPool)})
+     * @throws Exception
+     */
+    public void execute(final ConsistencyLevel cLevel, TokenRing ring) throws Exception {
+        if (coalesceMutations)
+            coalesce();
+        try {
+            if (journalPending(cLevel))
+                return;
+            GeneralPolicy policy = thrift.getGeneralPolicy();
+            Map<Integer, MutationsByKey> groups = new HashMap<Integer, MutationsByKey>();
+            for (Map.Entry<Bytes, Map<String, List<Mutation>>> batchEntry : batch.entrySet()) {
+                Integer rangeIndex = ring.getRangeIndex(batchEntry.getKey());
+                MutationsByKey group = groups.get(rangeIndex);
+                if (group == null) {
+                    group = new MutationsByKey();
+                    groups.put(rangeIndex, group);
+                }
+                group.put(batchEntry.getKey(), batchEntry.getValue());
+            }
+            List<Chunk> chunks = new ArrayList<Chunk>();
+            for (Map.Entry<Integer, MutationsByKey> groupEntry : groups.entrySet()) {
+                List<String> replicas = ring.getReplicas(groupEntry.getKey());
+                for (Map<Bytes, Map<String, List<Mutation>>> mutations : split(groupEntry.getValue(), policy.getMaxBatchMutations(), policy.getMaxBatchBytes())) {
+                    // Spread the chunks of a range over its replicas
+                    List<String> nodes = new ArrayList<String>(replicas);
+                    Collections.rotate(nodes, chunks.size());
+                    chunks.add(new Chunk(mutations, nodes));
+                }
+            }
+            handleFailures(executeChunks(chunks, cLevel, policy.getMaxParallelBatches()), chunks.size(), cLevel);
+        } finally {
+            // Even a failed batch may have been partially applied
+            invalidateCaches();
+        }
+    }
+
+    private void executeBatch(Map<Bytes, Map<String, List<Mutation>>> mutations, List<String> preferredNodes, ConsistencyLevel cLevel) throws Exception {
+        BatchOperation operation = new BatchOperation(mutations, cLevel);
+        try {
+            tryOperation(operation, preferredNodes);
+        } finally {
+            operation.release();
         }
+    }
 
-        IOperation operation = new IOperation() {
+    /**
+     * Send chunks in parallel.
+     * @return                          The chunks that failed, with their failures, in the order in which they failed
+     */
+    private List<Chunk> executeChunks(List<Chunk> chunks, final ConsistencyLevel cLevel, int maxParallel) throws Exception {
+        final ConcurrentLinkedQueue<Chunk> queue = new ConcurrentLinkedQueue<Chunk>(chunks);
+        final ConcurrentLinkedQueue<Chunk> failures = new ConcurrentLinkedQueue<Chunk>();
+        Callable<Object> worker = new Callable<Object>() {
             @Override
-            public Object execute(Connection conn) throws Exception {
-                // Send batch mutation job to Thrift connection
-                conn.getAPI().batch_mutate(convertedBatch, cLevel);
-                // Flush connection
-                conn.flush();
-                // Nothing to return
+            public Object call() {
+                Chunk chunk;
+                while ((chunk = queue.poll()) != null) {
+                    try {
+                        executeBatch(chunk.mutations, chunk.preferredNodes, cLevel);
+                    } catch (Exception e) {
+                        chunk.failure = e;
+                        failures.add(chunk);
+                    }
+                }
                 return null;
             }
         };
-        tryOperation(operation);
+        // The calling thread sends chunks too, so only the additional workers are run by the executor
+        int workers = Math.min(Math.max(maxParallel, 1), chunks.size());
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(workers - 1);
+        for (int i = 1; i < workers; i++)
+            futures.add(chunkExecutor.submit(worker));
+        worker.call();
+        for (Future<Object> future : futures)
+            future.get();
+        return new ArrayList<Chunk>(failures);
+    }
+
+    /**
+     * Journal the failed chunks whose failures mean that the cluster could not be reached, if the pool has a journal,
+     * and throw the failure of the first of the other chunks, logging the failures of the rest.
+     */
+    private void handleFailures(List<Chunk> failed, int chunkCount, ConsistencyLevel cLevel) throws Exception {
+        WriteJournal journal = thrift.getWriteJournal();
+        List<Exception> failures = new ArrayList<Exception>(failed.size());
+        for (Chunk chunk : failed) {
+            if (journal == null || !WriteJournal.isJournaled(chunk.failure) || !journal(journal, chunk.mutations, cLevel))
+                failures.add(chunk.failure);
+        }
+        if (failures.isEmpty())
+            return;
+        if (failures.size() > 1) {
+            // Only one exception can be thrown, so the failures of the other chunks are logged
+            logger.warn("{} of {} chunks of a batch failed, of which the first failure is thrown: {}",
+                    new Object[] { failures.size(), chunkCount, failures.get(0) });
+            for (Exception failure : failures.subList(1, failures.size()))
+                logger.warn("Another chunk of the batch failed", failure);
+        }
+        throw failures.get(0);
+    }
+
+    /**
+     * Split mutations into chunks that respect the given limits. Whole rows are placed in chunks, so that the mutations
+     * of a row are still applied by a single <code>batch_mutate</code> call. Only a row that exceeds the limits by
+     * itself is split, into chunks of its own, and its mutations are then no longer applied atomically.
+     */
+    private List<Map<Bytes, Map<String, List<Mutation>>>> split(Map<Bytes, Map<String, List<Mutation>>> mutations, int maxMutations, int maxBytes) {
+        if (maxMutations <= 0)
+            maxMutations = Integer.MAX_VALUE;
+        if (maxBytes <= 0)
+            maxBytes = Integer.MAX_VALUE;
+        List<Map<Bytes, Map<String, List<Mutation>>>> chunks = new ArrayList<Map<Bytes, Map<String, List<Mutation>>>>();
+        if (maxMutations == Integer.MAX_VALUE && maxBytes == Integer.MAX_VALUE) {
+            chunks.add(mutations);
+            return chunks;
+        }
+        MutationsByKey chunk = null;
+        int chunkMutations = 0;
+        long chunkBytes = 0;
+        for (Map.Entry<Bytes, Map<String, List<Mutation>>> batchEntry : mutations.entrySet()) {
+            Bytes rowKey = batchEntry.getKey();
+            int rowMutations = 0;
+            long rowBytes = rowKey.length();
+            for (List<Mutation> mutationList : batchEntry.getValue().values()) {
+                rowMutations += mutationList.size();
+                for (Mutation mutation : mutationList)
+                    rowBytes += estimateSize(mutation);
+            }
+            if (rowMutations <= maxMutations && rowBytes <= maxBytes) {
+                if (chunk == null || chunkMutations + rowMutations > maxMutations || chunkBytes + rowBytes > maxBytes) {
+                    chunk = new MutationsByKey();
+                    chunks.add(chunk);
+                    chunkMutations = 0;
+                    chunkBytes = 0;
+                }
+                chunk.put(rowKey, batchEntry.getValue());
+                chunkMutations += rowMutations;
+                chunkBytes += rowBytes;
+                continue;
+            }
+            // The row is too large for any chunk, so it is split between chunks that hold nothing else
+            chunk = null;
+            for (Map.Entry<String, List<Mutation>> cfEntry : batchEntry.getValue().entrySet()) {
+                for (Mutation mutation : cfEntry.getValue()) {
+                    int size = estimateSize(mutation);
+                    if (chunk == null || chunkMutations + 1 > maxMutations || chunkBytes + size > maxBytes) {
+                        chunk = new MutationsByKey();
+                        chunks.add(chunk);
+                        chunk.put(rowKey, new MutationsByCf());
+                        chunkMutations = 0;
+                        chunkBytes = rowKey.length();
+                    }
+                    Map<String, List<Mutation>> chunkCfs = chunk.get(rowKey);
+                    List<Mutation> chunkMutationList = chunkCfs.get(cfEntry.getKey());
+                    if (chunkMutationList == null) {
+                        chunkMutationList = new MutationList();
+                        chunkCfs.put(cfEntry.getKey(), chunkMutationList);
+                    }
+                    chunkMutationList.add(mutation);
+                    chunkMutations++;
+                    chunkBytes += size;
+                }
+            }
+            chunk = null;
+        }
+        if (chunks.size() <= 1) {
+            // The mutations are within the limits, so send them as they are
+            chunks.clear();
+            chunks.add(mutations);
+        }
+        return chunks;
+    }
+
+    /**
+     * Estimate the number of bytes a mutation occupies in a <code>batch_mutate</code> call.
+     */
+    static int estimateSize(Mutation mutation) {
+        ColumnOrSuperColumn cosc = mutation.getColumn_or_supercolumn();
+        if (cosc != null)
+            return cosc.column != null ? AdaptivePageSizer.estimateSize(cosc.column) : AdaptivePageSizer.estimateSize(cosc.super_column);
+        Deletion deletion = mutation.getDeletion();
+        int size = MUTATION_OVERHEAD;
+        if (deletion.super_column != null)
+            size += deletion.super_column.length;
+        if (deletion.predicate != null && deletion.predicate.column_names != null)
+            for (byte[] colName : deletion.predicate.column_names)
+                size += colName.length + 4;
+        return size;
+    }
+
+    /**
+     * Append the whole batch to the pool's journal without sending it, if the journal holds batches that have not yet
+     * been replayed. The cluster has then recently been unreachable, and the batch must not overtake those before it.
+     * @return                          Whether the batch was journaled
+     */
+    private boolean journalPending(ConsistencyLevel cLevel) {
+        WriteJournal journal = thrift.getWriteJournal();
+        return journal != null && journal.getPendingBytes() > 0 && journal(journal, batch, cLevel);
+    }
+
+    /**
+     * Append mutations to a journal.
+     * @return                          Whether the mutations were journaled, which they are not if the journal is full
+     *                                  or fails
+     */
+    private static boolean journal(WriteJournal journal, Map<Bytes, Map<String, List<Mutation>>> mutations, ConsistencyLevel cLevel) {
+        try {
+            return journal.append(mutations, cLevel);
+        } catch (Exception e) {
+            // The caller must see the failure of the batch, rather than the failure to journal it
+            logger.error("Failed to journal a batch of " + mutations.size() + " rows", e);
+            return false;
+        }
+    }
+
+    private void coalesce() {
+        for (Map<String, List<Mutation>> mutationsByCf : batch.values()) {
+            for (List<Mutation> mutations : mutationsByCf.values()) {
+                List<Mutation> coalesced = MutationCoalescer.coalesce(mutations);
+                if (coalesced != null) {
+                    mutations.clear();
+                    mutations.addAll(coalesced);
+                }
+            }
+        }
+        recount();
+    }
+
+    private void recount() {
+        resetCounts();
+        for (Map.Entry<Bytes, Map<String, List<Mutation>>> batchEntry : batch.entrySet()) {
+            estimatedSize += batchEntry.getKey().length() + ROW_OVERHEAD;
+            for (Map.Entry<String, List<Mutation>> cfEntry : batchEntry.getValue().entrySet()) {
+                columnFamilyCount++;
+                estimatedSize += cfEntry.getKey().length() + COLUMN_FAMILY_OVERHEAD;
+                for (Mutation mutation : cfEntry.getValue())
+                    count(mutation);
+            }
+        }
+    }
+
+    private void resetCounts() {
+        columnFamilyCount = 0;
+        columnCount = 0;
+        mutationCount = 0;
+        estimatedSize = BATCH_OVERHEAD;
+    }
+
+    private void count(Mutation mutation) {
+        mutationCount++;
+        estimatedSize += estimateSize(mutation);
+        ColumnOrSuperColumn cosc = mutation.getColumn_or_supercolumn();
+        if (cosc != null) {
+            columnCount += cosc.column != null ? 1 : cosc.super_column.columns.size();
+        } else {
+            SlicePredicate predicate = mutation.getDeletion().predicate;
+            columnCount += predicate != null && predicate.column_names != null ? predicate.column_names.size() : 1;
+        }
+    }
+
+    private static Map<byte[], Map<String, List<Mutation>>> convertBatch(Map<Bytes, Map<String, List<Mutation>>> mutations) {
+        HashMap<byte[], Map<String, List<Mutation>>> convertedBatch = new HashMap<byte[], Map<String, List<Mutation>>>(mutations.size());
+        for (Map.Entry<Bytes, Map<String, List<Mutation>>> batchEntry : mutations.entrySet()) {
+            convertedBatch.put(batchEntry.getKey().getBytes(), batchEntry.getValue());
+        }
+        return convertedBatch;
+    }
+
+    private void invalidateCaches() {
+        RowCache cache = thrift.getRowCache();
+        NegativeCache negativeCache = thrift.getNegativeCache();
+        if (cache == null && negativeCache == null)
+            return;
+        for (Map.Entry<Bytes, Map<String, List<Mutation>>> batchEntry : batch.entrySet()) {
+            Bytes rowKey = batchEntry.getKey();
+            for (Map.Entry<String, List<Mutation>> cfEntry : batchEntry.getValue().entrySet()) {
+                String colFamily = cfEntry.getKey();
+                if (cache != null)
+                    cache.invalidate(colFamily, rowKey);
+                if (negativeCache != null)
+                    for (Mutation mutation : cfEntry.getValue())
+                        invalidateNegativeCache(negativeCache, rowKey, colFamily, mutation);
+            }
+        }
+    }
+
+    private static void invalidateNegativeCache(NegativeCache negativeCache, Bytes rowKey, String colFamily, Mutation mutation) {
+        // Deletions can only make missing columns "more" missing
+        ColumnOrSuperColumn cosc = mutation.getColumn_or_supercolumn();
+        if (cosc == null)
+            return;
+        if (cosc.column != null) {
+            negativeCache.invalidatePath(colFamily, rowKey, null, cosc.column.name);
+        } else if (cosc.super_column != null) {
+            negativeCache.invalidatePath(colFamily, rowKey, cosc.super_column.name, null);
+            for (Column subColumn : cosc.super_column.columns)
+                negativeCache.invalidatePath(colFamily, rowKey, cosc.super_column.name, subColumn.name);
+        }
     }
 
     /**
@@ -70,7 +437,7 @@ public class Mutator extends Operand {
         cosc.setColumn(column);
         Mutation mutation = new Mutation();
         mutation.setColumn_or_supercolumn(cosc);
-        getMutationList(rowKey, colFamily).add(mutation);
+        addMutation(rowKey, colFamily, mutation);
     }
 
     /**
@@ -144,7 +511,7 @@ public class Mutator extends Operand {
         cosc.setSuper_column(scol);
         Mutation mutation = new Mutation();
         mutation.setColumn_or_supercolumn(cosc);
-        getMutationList(rowKey, colFamily).add(mutation);
+        addMutation(rowKey, colFamily, mutation);
     }
 
     /**
@@ -203,7 +570,7 @@ public class Mutator extends Operand {
         deletion.setPredicate(pred);
         Mutation mutation = new Mutation();
         mutation.setDeletion(deletion);
-        getMutationList(fromUTF8(rowKey), colFamily).add(mutation);
+        addMutation(fromUTF8(rowKey), colFamily, mutation);
     }
 
     /**
@@ -336,7 +703,7 @@ public class Mutator extends Operand {
         );
         Mutation mutation = new Mutation();
         mutation.setDeletion(deletion);
-        getMutationList(rowKey, colFamily).add(mutation);
+        addMutation(rowKey, colFamily, mutation);
     }
 
     /**
@@ -379,6 +746,146 @@ public class Mutator extends Operand {
         return new Column(nullSafeGet(colName), nullSafeGet(colValue), clock);
     }
 
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is 8 bytes, as written by <code>NumberHelper.toBytes(long)</code>.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newLongColumn(Bytes colName, long colValue) {
+        return new Column(nullSafeGet(colName), NumberHelper.toBytes(colValue), clock);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is 8 bytes, as written by <code>NumberHelper.toBytes(long)</code>.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newLongColumn(String colName, long colValue) {
+        return newLongColumn(fromUTF8(colName), colValue);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is 4 bytes, as written by <code>NumberHelper.toBytes(int)</code>.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newIntColumn(Bytes colName, int colValue) {
+        return new Column(nullSafeGet(colName), NumberHelper.toBytes(colValue), clock);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is 4 bytes, as written by <code>NumberHelper.toBytes(int)</code>.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newIntColumn(String colName, int colValue) {
+        return newIntColumn(fromUTF8(colName), colValue);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is the 8 bytes of its IEEE 754 bits.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newDoubleColumn(Bytes colName, double colValue) {
+        return new Column(nullSafeGet(colName), NumberHelper.toBytes(colValue), clock);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is the 8 bytes of its IEEE 754 bits.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newDoubleColumn(String colName, double colValue) {
+        return newDoubleColumn(fromUTF8(colName), colValue);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is the 4 bytes of its IEEE 754 bits.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newFloatColumn(Bytes colName, float colValue) {
+        return new Column(nullSafeGet(colName), NumberHelper.toBytes(colValue), clock);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is the 4 bytes of its IEEE 754 bits.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newFloatColumn(String colName, float colValue) {
+        return newFloatColumn(fromUTF8(colName), colValue);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is a single byte, which is 1 for <code>true</code> and 0 for <code>false</code>.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newColumn(Bytes colName, boolean colValue) {
+        return new Column(nullSafeGet(colName), NumberHelper.toBytes(colValue), clock);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is a single byte, which is 1 for <code>true</code> and 0 for <code>false</code>.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newColumn(String colName, boolean colValue) {
+        return newColumn(fromUTF8(colName), colValue);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is 8 bytes for each element, packed in order.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newColumn(Bytes colName, long[] colValue) {
+        return new Column(nullSafeGet(colName), NumberHelper.toBytes(colValue), clock);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is 8 bytes for each element, packed in order.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newColumn(String colName, long[] colValue) {
+        return newColumn(fromUTF8(colName), colValue);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is 8 bytes for each element, packed in order.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newColumn(Bytes colName, double[] colValue) {
+        return new Column(nullSafeGet(colName), NumberHelper.toBytes(colValue), clock);
+    }
+
+    /**
+     * Create new Column object with the time stamp passed to the constructor, whose value is 8 bytes for each element, packed in order.
+     * @param colName                    The column name
+     * @param colValue                   The column value
+     * @return                           An appropriate <code>Column</code> object
+     */
+    public Column newColumn(String colName, double[] colValue) {
+        return newColumn(fromUTF8(colName), colValue);
+    }
+
     /**
      * Create a list of <code>Column</code> objects.
      * @param columns                    The columns from which to compose the list
@@ -411,6 +918,132 @@ public class Mutator extends Operand {
         return clock.getTimestamp();
     }
 
+    /**
+     * Get the estimated size in bytes of the <code>batch_mutate</code> call that would send the mutations that have been
+     * specified. The estimate is updated as mutations are added, and can be used to execute a batch before it grows too
+     * large for the server's frame size or time out.
+     * @return                            The estimated size of the batch in bytes
+     */
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    /**
+     * Get the number of rows modified by the mutations that have been specified.
+     * @return                            The row count
+     */
+    public int getRowCount() {
+        return batch.size();
+    }
+
+    /**
+     * Get the number of column families modified by the mutations that have been specified, counting each column family
+     * once for each row it is modified in.
+     * @return                            The column family count
+     */
+    public int getColumnFamilyCount() {
+        return columnFamilyCount;
+    }
+
+    /**
+     * Get the number of columns written or deleted by the mutations that have been specified. Each sub-column counts as
+     * a column, as does the deletion of a whole super column.
+     * @return                            The column count
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Get the number of mutations that have been specified.
+     * @return                            The mutation count
+     */
+    public int getMutationCount() {
+        return mutationCount;
+    }
+
+    /**
+     * Discard the mutations that have been specified, so that the <code>Mutator</code> can be used for another batch
+     * with the current time as its time stamp. The maps and lists that held the mutations are kept for reuse, which
+     * avoids allocating them again for each batch when a steady stream of batches is written.
+     */
+    public void reset() {
+        reset(new Clock(System.currentTimeMillis() * 1000));
+    }
+
+    /**
+     * Discard the mutations that have been specified, so that the <code>Mutator</code> can be used for another batch.
+     * The maps and lists that held the mutations are kept for reuse.
+     * @param clock                     The clock that encapsulates the time stamp to use for the next batch
+     */
+    public void reset(Clock clock) {
+        for (Map<String, List<Mutation>> mutationsByCf : batch.values()) {
+            for (List<Mutation> mutations : mutationsByCf.values()) {
+                if (spareLists.size() < MAX_SPARES) {
+                    mutations.clear();
+                    spareLists.add((MutationList) mutations);
+                }
+            }
+            if (spareMaps.size() < MAX_SPARES) {
+                mutationsByCf.clear();
+                spareMaps.add((MutationsByCf) mutationsByCf);
+            }
+        }
+        batch.clear();
+        resetCounts();
+        this.clock = clock;
+    }
+
+    /**
+     * Sends a batch. Over a connection that uses the binary protocol, the batch is serialized by a
+     * <code>BatchMutateEncoder</code>, so that it is not copied into the map expected by the Thrift client, and is not
+     * serialized again if the operation is retried. The batch is only serialized once a connection that can send it has
+     * been obtained.
+     */
+    private static class BatchOperation implements IOperation<Object> {
+        private final Map<Bytes, Map<String, List<Mutation>>> mutations;
+        private final ConsistencyLevel cLevel;
+        private BatchMutateEncoder encoder;
+
+        BatchOperation(Map<Bytes, Map<String, List<Mutation>>> mutations, ConsistencyLevel cLevel) {
+            this.mutations = mutations;
+            this.cLevel = cLevel;
+        }
+
+        @Override
+        public Object execute(Connection conn) throws Exception {
+            if (BatchMutateEncoder.canSend(conn)) {
+                if (encoder == null)
+                    encoder = new BatchMutateEncoder(mutations, cLevel);
+                // Send the serialized batch mutation job to Thrift connection and wait for the reply
+                encoder.send(conn);
+            } else {
+                // Send batch mutation job to Thrift connection
+                conn.getAPI().batch_mutate(convertBatch(mutations), cLevel);
+                // Flush connection
+                conn.flush();
+            }
+            // Nothing to return
+            return null;
+        }
+
+        void release() {
+            if (encoder != null)
+                encoder.release();
+        }
+    }
+
+    private static class Chunk {
+        private final Map<Bytes, Map<String, List<Mutation>>> mutations;
+        private final List<String> preferredNodes;
+        private Exception failure;
+
+        Chunk(Map<Bytes, Map<String, List<Mutation>>> mutations, List<String> preferredNodes) {
+            this.mutations = mutations;
+            this.preferredNodes = preferredNodes;
+        }
+    }
+
     @SuppressWarnings("serial")
     class MutationList extends ArrayList<Mutation> {}
     @SuppressWarnings("serial")
@@ -418,8 +1051,19 @@ public class Mutator extends Operand {
     @SuppressWarnings("serial")
     class MutationsByKey extends HashMap<Bytes, Map<String, List<Mutation>>> {}
 
+    /**
+     * The maximum number of emptied maps and lists kept by a reset <code>Mutator</code> for reuse.
+     */
+    private static final int MAX_SPARES = 1024;
+
     private final Map<Bytes, Map<String, List<Mutation>>> batch;
-    private final Clock clock;
+    private final ArrayList<MutationsByCf> spareMaps = new ArrayList<MutationsByCf>();
+    private final ArrayList<MutationList> spareLists = new ArrayList<MutationList>();
+    private Clock clock;
+    private int columnFamilyCount;
+    private int columnCount;
+    private int mutationCount;
+    private long estimatedSize;
 
     /**
      * Create a batch mutation operation.
@@ -436,17 +1080,48 @@ public class Mutator extends Operand {
         super(thrift);
         this.clock = clock;
         batch = new MutationsByKey();
+        resetCounts();
+        coalesceMutations = thrift.getGeneralPolicy().isCoalesceMutations();
+    }
+
+    /**
+     * Add a mutation to the batch, which may have been built elsewhere, such as one queued by a
+     * <code>BatchingMutator</code>.
+     */
+    void addMutation(Bytes rowKey, String colFamily, Mutation mutation) {
+        ValueCompressor compressor = thrift.getGeneralPolicy().getValueCompressor(colFamily);
+        if (compressor != null && mutation.getColumn_or_supercolumn() != null)
+            mutation = compress(compressor, mutation);
+        getMutationList(rowKey, colFamily).add(mutation);
+        count(mutation);
+    }
+
+    /**
+     * Create a copy of a mutation that writes columns with their values compressed, leaving the caller's columns as
+     * they are, since they may also be written elsewhere.
+     */
+    private static Mutation compress(ValueCompressor compressor, Mutation mutation) {
+        ColumnOrSuperColumn cosc = mutation.getColumn_or_supercolumn();
+        ColumnOrSuperColumn compressed = new ColumnOrSuperColumn();
+        if (cosc.column != null)
+            compressed.setColumn(compressor.compress(cosc.column));
+        if (cosc.super_column != null)
+            compressed.setSuper_column(compressor.compress(cosc.super_column));
+        return new Mutation().setColumn_or_supercolumn(compressed);
     }
 
     private MutationList getMutationList(Bytes key, String colFamily) {
         MutationsByCf mutsByCf = (MutationsByCf) batch.get(key);
         if (mutsByCf == null) {
-            mutsByCf = new MutationsByCf();
+            estimatedSize += key.length() + ROW_OVERHEAD;
+            mutsByCf = spareMaps.isEmpty() ? new MutationsByCf() : spareMaps.remove(spareMaps.size() - 1);
             batch.put(key, mutsByCf);
         }
         MutationList mutList = (MutationList) mutsByCf.get(colFamily);
         if (mutList == null) {
-            mutList = new MutationList();
+            columnFamilyCount++;
+            estimatedSize += colFamily.length() + COLUMN_FAMILY_OVERHEAD;
+            mutList = spareLists.isEmpty() ? new MutationList() : spareLists.remove(spareLists.size() - 1);
             mutsByCf.put(colFamily, mutList);
         }
         return mutList;
@@ -0,0 +1,178 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.cliffc.high_scale_lib.Counter;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+
+/**
+ * A client-side cache of lookups that found nothing. A cache is attached to a connection pool using
+ * {@link ThriftPool#setNegativeCache(NegativeCache)}, after which <code>Selector</code> objects created from the pool
+ * remember the columns, super columns and rows that were found to be missing for a short time, and answer repeated
+ * lookups of them locally. Writes made through <code>Mutator</code> objects created from the pool remove the entries
+ * of the columns they write.
+ * <p>The cache holds a bounded number of entries and evicts the least recently used entries first. Since writes made
+ * by other clients are not seen by the cache, the time to live should be kept short.
+ */
+public class NegativeCache {
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final ConcurrentLinkedHashMap<Bytes, Entry> entries;
+    private final long timeToLive;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final Counter hits = new Counter();
+    private final Counter misses = new Counter();
+
+    /**
+     * Create a new cache.
+     * @param maxEntries                    The maximum number of missing paths held by the cache
+     * @param timeToLive                    The time in milliseconds for which a path is remembered as missing
+     */
+    public NegativeCache(int maxEntries, long timeToLive) {
+        this.timeToLive = timeToLive;
+        entries = new ConcurrentLinkedHashMap.Builder<Bytes, Entry>()
+                .maximumWeightedCapacity(maxEntries)
+                .build();
+    }
+
+    /**
+     * Remove the entries that a write to a column invalidates: the column itself, its super column (if any) and its row.
+     * @param columnFamily                  The name of the column family
+     * @param rowKey                        The key of the row
+     * @param superColName                  The name of the super column containing the column, or <code>null</code>
+     * @param colName                       The name of the column, or <code>null</code> if a whole super column was written
+     */
+    public void invalidate(String columnFamily, Bytes rowKey, Bytes superColName, Bytes colName) {
+        invalidatePath(columnFamily, rowKey, Bytes.nullSafeGet(superColName), Bytes.nullSafeGet(colName));
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        for (int i = 0; i < GENERATION_STRIPES; i++)
+            generations.incrementAndGet(i);
+        entries.clear();
+    }
+
+    /**
+     * Get the number of lookups that were answered from the cache.
+     * @return                              The hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups that had to be sent to Cassandra.
+     * @return                              The miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of entries currently held by the cache.
+     * @return                              The entry count
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Create a probe for a column, super column or row. Pass a <code>null</code> column name to probe a super column or,
+     * if the super column name is also <code>null</code>, a row.
+     */
+    Probe newProbe(String columnFamily, Bytes rowKey, byte[] superColName, byte[] colName) {
+        Bytes rowRef = newRowRef(columnFamily, rowKey);
+        return new Probe(rowRef, superColName, colName, generations.get(stripe(rowRef)));
+    }
+
+    /**
+     * Determines whether the probed path, or a path containing it, is known to be missing.
+     */
+    boolean isMissing(Probe probe) {
+        if (isEntryLive(newKey(probe.rowRef, null, null))
+                || (probe.superColName != null && isEntryLive(newKey(probe.rowRef, probe.superColName, null)))
+                || (probe.colName != null && isEntryLive(newKey(probe.rowRef, probe.superColName, probe.colName)))) {
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Record that the probed path is missing. Nothing is recorded if the row was written since the probe was created.
+     */
+    void putMissing(Probe probe) {
+        int stripe = stripe(probe.rowRef);
+        if (generations.get(stripe) != probe.generation)
+            return;
+        Bytes key = newKey(probe.rowRef, probe.superColName, probe.colName);
+        entries.put(key, new Entry(System.currentTimeMillis() + timeToLive));
+        // A write may have raced with the store, in which case undo it
+        if (generations.get(stripe) != probe.generation)
+            entries.remove(key);
+    }
+
+    void invalidatePath(String columnFamily, Bytes rowKey, byte[] superColName, byte[] colName) {
+        Bytes rowRef = newRowRef(columnFamily, rowKey);
+        // Prevent lookups that are currently in flight from recording what may now be present
+        generations.incrementAndGet(stripe(rowRef));
+        entries.remove(newKey(rowRef, null, null));
+        if (superColName != null)
+            entries.remove(newKey(rowRef, superColName, null));
+        if (colName != null)
+            entries.remove(newKey(rowRef, superColName, colName));
+    }
+
+    private boolean isEntryLive(Bytes key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return false;
+        if (entry.expiresAt > System.currentTimeMillis())
+            return true;
+        entries.remove(key, entry);
+        return false;
+    }
+
+    private static Bytes newRowRef(String columnFamily, Bytes rowKey) {
+        return new CacheKeyBuilder().append(columnFamily).append(Bytes.nullSafeGet(rowKey)).toBytes();
+    }
+
+    private static Bytes newKey(Bytes rowRef, byte[] superColName, byte[] colName) {
+        return new CacheKeyBuilder().append(rowRef.getBytes()).append(superColName).append(colName).toBytes();
+    }
+
+    private static int stripe(Bytes rowRef) {
+        return (rowRef.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    /**
+     * A pending lookup of a column, super column or row.
+     */
+    static class Probe {
+        private final Bytes rowRef;
+        private final byte[] superColName;
+        private final byte[] colName;
+        private final long generation;
+
+        Probe(Bytes rowRef, byte[] superColName, byte[] colName, long generation) {
+            this.rowRef = rowRef;
+            this.superColName = superColName;
+            this.colName = colName;
+            this.generation = generation;
+        }
+    }
+
+    private static class Entry {
+        private final long expiresAt;
+
+        Entry(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+    }
+}
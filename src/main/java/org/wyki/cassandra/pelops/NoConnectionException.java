@@ -0,0 +1,12 @@
+package org.wyki.cassandra.pelops;
+
+/**
+ * Thrown when a pool cannot provide a connection because no Cassandra node is available.
+ */
+public class NoConnectionException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public NoConnectionException(String message) {
+        super(message);
+    }
+}
@@ -64,4 +64,178 @@ public class NumberHelper {
 		b[offset++] = (byte)(i>>8);
 		b[offset++] = (byte)i;
 	}
+	
+	public static final long toLong(byte[] b,int offset) {
+		return toLong(b,offset,8);
+	}
+	
+	public static final void toBytes(long l,byte[] b,int offset) {
+		toBytes(l,b,offset,8);
+	}
+	
+	public static final double toDouble(byte[] b) {
+		return toDouble(b,0);
+	}
+	
+	public static final double toDouble(byte[] b,int offset) {
+		return Double.longBitsToDouble(toLong(b,offset,8));
+	}
+	
+	public static final byte[] toBytes(double d) {
+		return toBytes(Double.doubleToLongBits(d),8);
+	}
+	
+	public static final void toBytes(double d,byte[] b,int offset) {
+		toBytes(Double.doubleToLongBits(d),b,offset,8);
+	}
+	
+	public static final float toFloat(byte[] b) {
+		return toFloat(b,0);
+	}
+	
+	public static final float toFloat(byte[] b,int offset) {
+		return Float.intBitsToFloat(toInt(b,offset));
+	}
+	
+	public static final byte[] toBytes(float f) {
+		return toBytes(Float.floatToIntBits(f));
+	}
+	
+	public static final void toBytes(float f,byte[] b,int offset) {
+		toBytes(Float.floatToIntBits(f),b,offset);
+	}
+	
+	/**
+	 * Read a boolean, which is a single byte that is zero if the value is <code>false</code>.
+	 */
+	public static final boolean toBoolean(byte[] b,int offset) {
+		return b[offset] != 0;
+	}
+	
+	public static final boolean toBoolean(byte[] b) {
+		return toBoolean(b,0);
+	}
+	
+	public static final byte[] toBytes(boolean v) {
+		return new byte[] { (byte)(v ? 1 : 0) };
+	}
+	
+	public static final void toBytes(boolean v,byte[] b,int offset) {
+		b[offset] = (byte)(v ? 1 : 0);
+	}
+	
+	/**
+	 * Pack an array of longs into an array of 8 bytes for each.
+	 */
+	public static final byte[] toBytes(long[] values) {
+		byte[] b = new byte[values.length << 3];
+		toBytes(values,b,0);
+		return b;
+	}
+	
+	public static final void toBytes(long[] values,byte[] b,int offset) {
+		for (int i=0; i<values.length; ++i)
+			toBytes(values[i],b,offset+(i<<3),8);
+	}
+	
+	/**
+	 * Unpack the longs packed into an array by {@link #toBytes(long[])}.
+	 */
+	public static final long[] toLongs(byte[] b) {
+		return toLongs(b,0,b.length);
+	}
+	
+	public static final long[] toLongs(byte[] b,int offset,int length) {
+		long[] values = new long[checkPacked(length,8)];
+		for (int i=0; i<values.length; ++i)
+			values[i] = toLong(b,offset+(i<<3),8);
+		return values;
+	}
+	
+	/**
+	 * Pack an array of doubles into an array of 8 bytes for each.
+	 */
+	public static final byte[] toBytes(double[] values) {
+		byte[] b = new byte[values.length << 3];
+		toBytes(values,b,0);
+		return b;
+	}
+	
+	public static final void toBytes(double[] values,byte[] b,int offset) {
+		for (int i=0; i<values.length; ++i)
+			toBytes(Double.doubleToLongBits(values[i]),b,offset+(i<<3),8);
+	}
+	
+	/**
+	 * Unpack the doubles packed into an array by {@link #toBytes(double[])}.
+	 */
+	public static final double[] toDoubles(byte[] b) {
+		return toDoubles(b,0,b.length);
+	}
+	
+	public static final double[] toDoubles(byte[] b,int offset,int length) {
+		double[] values = new double[checkPacked(length,8)];
+		for (int i=0; i<values.length; ++i)
+			values[i] = toDouble(b,offset+(i<<3));
+		return values;
+	}
+	
+	/**
+	 * Get the number of bytes in the variable length encoding of a long. Values are zig-zag encoded, so that small
+	 * negative values are as short as small positive ones, and then written seven bits to a byte, with the high bit of
+	 * each byte but the last set. A value takes between 1 and 10 bytes.
+	 */
+	public static final int varLongSize(long l) {
+		long v = (l << 1) ^ (l >> 63);
+		int size = 1;
+		while ((v >>>= 7) != 0)
+			++size;
+		return size;
+	}
+	
+	public static final byte[] toVarBytes(long l) {
+		byte[] b = new byte[varLongSize(l)];
+		toVarBytes(l,b,0);
+		return b;
+	}
+	
+	/**
+	 * Write the variable length encoding of a long.
+	 * @return								The number of bytes written, which is {@link #varLongSize(long)}
+	 */
+	public static final int toVarBytes(long l,byte[] b,int offset) {
+		long v = (l << 1) ^ (l >> 63);
+		int pos = offset;
+		while ((v & ~0x7fL) != 0) {
+			b[pos++] = (byte)((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		b[pos++] = (byte)v;
+		return pos - offset;
+	}
+	
+	public static final long toVarLong(byte[] b) {
+		return toVarLong(b,0);
+	}
+	
+	/**
+	 * Read the variable length encoding of a long. The number of bytes read is the {@link #varLongSize(long)} of the
+	 * value.
+	 */
+	public static final long toVarLong(byte[] b,int offset) {
+		long v = 0;
+		for (int shift=0; shift<64; shift+=7) {
+			byte next = b[offset++];
+			v |= (long)(next & 0x7f) << shift;
+			if (next >= 0)
+				return (v >>> 1) ^ -(v & 1);
+		}
+		throw new IllegalArgumentException("Variable length long is longer than 10 bytes");
+	}
+	
+	private static int checkPacked(int length,int width) {
+		if (length % width != 0)
+			throw new IllegalArgumentException("Length " + length + " is not a multiple of " + width);
+		return length / width;
+	}
 }
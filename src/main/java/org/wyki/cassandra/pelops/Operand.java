@@ -1,5 +1,7 @@
 package org.wyki.cassandra.pelops;
 
+import java.util.List;
+
 import org.apache.cassandra.thrift.AuthenticationException;
 import org.apache.cassandra.thrift.AuthorizationException;
 import org.apache.cassandra.thrift.InvalidRequestException;
@@ -25,12 +27,26 @@ public class Operand {
 	}
 	
 	protected <ReturnType> ReturnType tryOperation(IOperation<ReturnType> operation) throws Exception {
+		return tryOperation(operation, null);
+	}
+	
+	/**
+	 * Perform an operation, preferring to send it to particular nodes. If none of the preferred nodes has a connection
+	 * available, or they have all failed, the operation is sent to any node.
+	 * @param operation					The operation
+	 * @param preferredNodes			The nodes to try first, in order, or <code>null</code>
+	 * @return							The result of the operation
+	 * @throws Exception
+	 */
+	protected <ReturnType> ReturnType tryOperation(IOperation<ReturnType> operation, List<String> preferredNodes) throws Exception {
 		String lastNode = null;
 		Exception lastException = null;
 		int retries = 0;
 		do {
 			// Get a connection to a Cassandra node
-            Connection conn = thrift.getConnectionExcept(lastNode);
+            Connection conn = getPreferredConnection(preferredNodes, lastNode);
+            if (conn == null)
+                conn = thrift.getConnectionExcept(lastNode);
             lastNode = conn.getNode();
 			try {
 				// Execute operation
@@ -66,4 +82,17 @@ public class Operand {
 		
 		throw lastException;
 	}
+	
+	private Connection getPreferredConnection(List<String> preferredNodes, String notNode) throws Exception {
+		if (preferredNodes == null)
+			return null;
+		for (String node : preferredNodes) {
+			if (node.equals(notNode))
+				continue;
+			Connection conn = thrift.getConnectionTo(node);
+			if (conn != null)
+				return conn;
+		}
+		return null;
+	}
 }
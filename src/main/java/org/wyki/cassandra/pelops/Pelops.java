@@ -3,6 +3,7 @@ package org.wyki.cassandra.pelops;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.cassandra.thrift.Clock;
+import org.apache.cassandra.thrift.ConsistencyLevel;
 import org.slf4j.Logger;
 import org.wyki.portability.SystemProxy;
 
@@ -87,9 +88,45 @@ public class Pelops {
 		return poolMap.get(poolName).createSelector();
 	}
 	
+	/**
+	 * Create a <code>BatchingReader</code> object. Unlike a <code>Selector</code>, the reader should be kept and shared
+	 * between threads, so that their single row reads can be combined.
+	 * @param poolName				The name of the connection pool to use (this determines the Cassandra database cluster)
+	 * @param maxBatchSize			The maximum number of rows read by a single <code>multiget_slice</code>
+	 * @param batchWindow				The maximum time in milliseconds a read waits for other reads to join its batch
+	 * @return						A new <code>BatchingReader</code> object
+	 */
+	public static BatchingReader createBatchingReader(String poolName, int maxBatchSize, int batchWindow) {
+		return new BatchingReader(poolMap.get(poolName), maxBatchSize, batchWindow);
+	}
+	
+	/**
+	 * Create a <code>BatchingMutator</code> object. The mutator should be kept and shared between threads, so that their
+	 * writes can be combined into batches, and shut down when it is no longer needed.
+	 * @param poolName				The name of the connection pool to use (this determines the Cassandra database cluster)
+	 * @param cLevel					The Cassandra consistency level with which batches are executed
+	 * @param policy					Determines when batches are sent and how many writes may be pending
+	 * @return						A new <code>BatchingMutator</code> object
+	 */
+	public static BatchingMutator createBatchingMutator(String poolName, ConsistencyLevel cLevel, BatchingMutator.Policy policy) {
+		return new BatchingMutator(poolMap.get(poolName), cLevel, policy);
+	}
+	
+	/**
+	 * Create a <code>BulkLoader</code> object, which loads rows from files of JSON or CSV records.
+	 * @param poolName				The name of the connection pool to use (this determines the Cassandra database cluster)
+	 * @param cLevel					The Cassandra consistency level with which batches are executed
+	 * @param mapper					Maps the records of the input to mutations
+	 * @param policy					Determines the parallelism and batch sizes of a load
+	 * @return						A new <code>BulkLoader</code> object
+	 */
+	public static BulkLoader createBulkLoader(String poolName, ConsistencyLevel cLevel, BulkLoader.RecordMapper mapper, BulkLoader.Policy policy) {
+		return new BulkLoader(poolMap.get(poolName), cLevel, mapper, policy);
+	}
+	
 	/**
 	 * Create a <code>Mutator</code> object using the current time as the operation time stamp. The <code>Mutator</code> object  
-	 * must only be used to execute 1 mutation operation.
+	 * must only be used to execute 1 mutation operation, unless it is reset.
 	 * @param poolName				The name of the connection pool to use (this determines the Cassandra database cluster)
 	 * @return						A new <code>Mutator</code> object
 	 */
@@ -99,7 +136,7 @@ public class Pelops {
 	
 	/**
 	 * Create a <code>Mutator</code> object with an arbitrary time stamp. The <code>Mutator</code> object
-	 * must only be used to execute 1 mutation operation.
+	 * must only be used to execute 1 mutation operation, unless it is reset.
 	 * @param poolName				The name of the connection pool to use (this determines the Cassandra database cluster)
 	 * @param timestamp				The default time stamp to use for operations
 	 * @return						A new <code>Mutator</code> object
@@ -110,7 +147,7 @@ public class Pelops {
 
 	/**
 	 * Create a <code>Mutator</code> object with an arbitrary time stamp. The <code>Mutator</code> object
-	 * must only be used to execute 1 mutation operation.
+	 * must only be used to execute 1 mutation operation, unless it is reset.
 	 * @param poolName				The name of the connection pool to use (this determines the Cassandra database cluster)
 	 * @param clock				    The default clock instance to use for operations
 	 * @return						A new <code>Mutator</code> object
@@ -0,0 +1,91 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.cliffc.high_scale_lib.Counter;
+
+/**
+ * Coalesces identical reads that are in flight at the same time. The first thread to issue a read (the leader)
+ * performs it, while threads that issue an identical read before the leader completes (followers) wait for and share
+ * the leader's result, or its exception. A coalescer is shared by all the <code>Selector</code> objects created from a
+ * pool; coalescing is enabled using {@link GeneralPolicy#setCoalesceReads(boolean)} or
+ * {@link Selector#setCoalesceReads(boolean)}.
+ */
+public class ReadCoalescer {
+    private final ConcurrentHashMap<Bytes, Flight> inFlight = new ConcurrentHashMap<Bytes, Flight>();
+    private final Counter leaders = new Counter();
+    private final Counter followers = new Counter();
+
+    /**
+     * Get the number of reads that were actually performed.
+     * @return                              The count of leading reads
+     */
+    public long getLeaderCount() {
+        return leaders.get();
+    }
+
+    /**
+     * Get the number of reads that were answered by waiting for an identical read already in flight.
+     * @return                              The count of coalesced reads
+     */
+    public long getFollowerCount() {
+        return followers.get();
+    }
+
+    /**
+     * Create the key identifying a slice read.
+     */
+    static Bytes newKey(byte kind, Bytes rowKey, ColumnParent colParent, SlicePredicate predicate, ConsistencyLevel cLevel) {
+        return new CacheKeyBuilder().append(kind).append(Bytes.nullSafeGet(rowKey))
+                .append(colParent.getColumn_family()).append(colParent.getSuper_column())
+                .append(predicate).append(cLevel.getValue()).toBytes();
+    }
+
+    /**
+     * Perform a read, or wait for the result of an identical read if one is already in flight.
+     * @param key                           The key identifying the read
+     * @param read                          Performs the read
+     * @return                              The result of the read
+     * @throws Exception if the read (performed by this or another thread) failed
+     */
+    Object execute(Bytes key, Callable<Object> read) throws Exception {
+        Flight flight = new Flight();
+        Flight leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            followers.increment();
+            return leader.await();
+        }
+        leaders.increment();
+        try {
+            flight.result = read.call();
+            return flight.result;
+        } catch (Exception e) {
+            flight.exception = e;
+            throw e;
+        } catch (Error e) {
+            flight.exception = new IllegalStateException("A coalesced read failed", e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+            flight.done.countDown();
+        }
+    }
+
+    private static class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Object result;
+        private volatile Exception exception;
+
+        Object await() throws Exception {
+            done.await();
+            if (exception != null)
+                throw exception;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.wyki.cassandra.pelops;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the single-line records read by a <code>BulkLoader</code>: lines of comma separated values, and lines holding
+ * a JSON object. JSON objects are returned as maps, arrays as lists, strings as strings, integers as longs (or
+ * <code>BigInteger</code>s if they do not fit), other numbers as doubles, and <code>true</code>, <code>false</code>
+ * and <code>null</code> as booleans and null. A parser is not thread-safe.
+ */
+class RecordParser {
+    private final StringBuilder buf = new StringBuilder();
+    private String line;
+    private int pos;
+
+    /**
+     * Split a line of separated values into its fields. A field may be quoted with double quotes, in which case it may
+     * contain the separator, and double quotes written as two double quotes. Quoted fields cannot span lines.
+     */
+    List<String> parseCsv(String line, char separator) {
+        List<String> fields = new ArrayList<String>();
+        this.line = line;
+        pos = 0;
+        while (true) {
+            buf.setLength(0);
+            if (pos < line.length() && line.charAt(pos) == '"') {
+                pos++;
+                while (true) {
+                    if (pos >= line.length())
+                        throw error("Unterminated quoted field");
+                    char c = line.charAt(pos++);
+                    if (c == '"') {
+                        if (pos < line.length() && line.charAt(pos) == '"')
+                            pos++;
+                        else
+                            break;
+                    }
+                    buf.append(c);
+                }
+                if (pos < line.length() && line.charAt(pos) != separator)
+                    throw error("Expected a separator after a quoted field");
+            } else {
+                int end = line.indexOf(separator, pos);
+                if (end < 0)
+                    end = line.length();
+                buf.append(line, pos, end);
+                pos = end;
+            }
+            fields.add(buf.toString());
+            if (pos >= line.length())
+                return fields;
+            pos++;
+        }
+    }
+
+    /**
+     * Parse a line holding a JSON object.
+     */
+    Map<String, Object> parseJson(String line) {
+        this.line = line;
+        pos = 0;
+        skipWhitespace();
+        if (pos >= line.length() || line.charAt(pos) != '{')
+            throw error("Expected a JSON object");
+        Map<String, Object> object = parseObject();
+        skipWhitespace();
+        if (pos < line.length())
+            throw error("Unexpected characters after the JSON object");
+        return object;
+    }
+
+    private Object parseValue() {
+        skipWhitespace();
+        if (pos >= line.length())
+            throw error("Unexpected end of line");
+        char c = line.charAt(pos);
+        switch (c) {
+            case '{':
+                return parseObject();
+            case '[':
+                return parseArray();
+            case '"':
+                return parseString();
+            case 't':
+                expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                expect("null");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                    return parseNumber();
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> parseObject() {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        pos++;
+        skipWhitespace();
+        if (pos < line.length() && line.charAt(pos) == '}') {
+            pos++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (pos >= line.length() || line.charAt(pos) != '"')
+                throw error("Expected a field name");
+            String name = parseString();
+            skipWhitespace();
+            if (pos >= line.length() || line.charAt(pos) != ':')
+                throw error("Expected ':'");
+            pos++;
+            object.put(name, parseValue());
+            if (endOfList('}'))
+                return object;
+        }
+    }
+
+    private List<Object> parseArray() {
+        List<Object> array = new ArrayList<Object>();
+        pos++;
+        skipWhitespace();
+        if (pos < line.length() && line.charAt(pos) == ']') {
+            pos++;
+            return array;
+        }
+        while (true) {
+            array.add(parseValue());
+            if (endOfList(']'))
+                return array;
+        }
+    }
+
+    private boolean endOfList(char close) {
+        skipWhitespace();
+        if (pos >= line.length())
+            throw error("Unexpected end of line");
+        char c = line.charAt(pos++);
+        if (c == close)
+            return true;
+        if (c != ',')
+            throw error("Expected ',' or '" + close + "'");
+        return false;
+    }
+
+    private String parseString() {
+        pos++;
+        int start = pos;
+        // Most strings have no escapes, and can be taken from the line as they are
+        while (pos < line.length()) {
+            char c = line.charAt(pos);
+            if (c == '"')
+                return line.substring(start, pos++);
+            if (c == '\\')
+                break;
+            pos++;
+        }
+        buf.setLength(0);
+        buf.append(line, start, pos);
+        while (pos < line.length()) {
+            char c = line.charAt(pos++);
+            if (c == '"')
+                return buf.toString();
+            if (c != '\\') {
+                buf.append(c);
+                continue;
+            }
+            if (pos >= line.length())
+                break;
+            c = line.charAt(pos++);
+            switch (c) {
+                case 'b': buf.append('\b'); break;
+                case 'f': buf.append('\f'); break;
+                case 'n': buf.append('\n'); break;
+                case 'r': buf.append('\r'); break;
+                case 't': buf.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > line.length())
+                        throw error("Invalid unicode escape");
+                    try {
+                        buf.append((char) Integer.parseInt(line.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    buf.append(c);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private Object parseNumber() {
+        int start = pos;
+        boolean integral = true;
+        while (pos < line.length()) {
+            char c = line.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E')
+                integral = false;
+            else if (c != '-' && c != '+' && (c < '0' || c > '9'))
+                break;
+            pos++;
+        }
+        String number = line.substring(start, pos);
+        try {
+            if (!integral)
+                return Double.valueOf(number);
+            if (number.length() < 19)
+                return Long.valueOf(number);
+            BigInteger value = new BigInteger(number);
+            return value.bitLength() < 64 ? (Object) Long.valueOf(value.longValue()) : value;
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + number);
+        }
+    }
+
+    private void expect(String literal) {
+        if (!line.startsWith(literal, pos))
+            throw error("Unexpected character '" + line.charAt(pos) + "'");
+        pos += literal.length();
+    }
+
+    private void skipWhitespace() {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos)))
+            pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos);
+    }
+}
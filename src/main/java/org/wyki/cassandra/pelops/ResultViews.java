@@ -0,0 +1,204 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.SuperColumn;
+
+/**
+ * Read-only views over the results returned by Thrift. Rather than copying each result into new maps and lists, the
+ * views unwrap row keys and columns as they are accessed. Lookups of rows by key build a hash index over the result
+ * the first time they are made, which holds the view of each row, so repeated lookups return the same view.
+ */
+final class ResultViews {
+    private ResultViews() {
+    }
+
+    static final Unwrapper<Column> COLUMN = new Unwrapper<Column>() {
+        @Override
+        Column unwrap(ColumnOrSuperColumn cosc) {
+            return cosc.column;
+        }
+    };
+
+    static final Unwrapper<SuperColumn> SUPER_COLUMN = new Unwrapper<SuperColumn>() {
+        @Override
+        SuperColumn unwrap(ColumnOrSuperColumn cosc) {
+            return cosc.super_column;
+        }
+    };
+
+    /**
+     * Create a view of the columns (or super columns) in a list returned by Thrift.
+     */
+    static <T> List<T> list(List<ColumnOrSuperColumn> coscList, Unwrapper<T> unwrapper) {
+        return new CoscList<T>(coscList, unwrapper);
+    }
+
+    /**
+     * Create a view of the rows returned by <code>multiget_slice</code>.
+     */
+    static <T> Map<Bytes, List<T>> rows(final Map<byte[], List<ColumnOrSuperColumn>> apiResult, final Unwrapper<T> unwrapper) {
+        return new RowMap<T>(unwrapper) {
+            @Override
+            public int size() {
+                return apiResult.size();
+            }
+
+            @Override
+            Iterator<Map.Entry<Bytes, List<T>>> entryIterator() {
+                final Iterator<Map.Entry<byte[], List<ColumnOrSuperColumn>>> rows = apiResult.entrySet().iterator();
+                return new RowIterator<T>() {
+                    @Override
+                    public boolean hasNext() {
+                        return rows.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<Bytes, List<T>> next() {
+                        Map.Entry<byte[], List<ColumnOrSuperColumn>> row = rows.next();
+                        return entry(row.getKey(), row.getValue());
+                    }
+                };
+            }
+
+            @Override
+            void index(HashMap<Bytes, List<T>> index) {
+                for (Map.Entry<byte[], List<ColumnOrSuperColumn>> row : apiResult.entrySet())
+                    index.put(new Bytes(row.getKey()), list(row.getValue(), unwrapper));
+            }
+        };
+    }
+
+    /**
+     * Create a view of the rows returned by <code>get_range_slices</code>. The view iterates over the rows in the order
+     * they were returned.
+     */
+    static <T> Map<Bytes, List<T>> rows(final List<KeySlice> apiResult, final Unwrapper<T> unwrapper) {
+        return new RowMap<T>(unwrapper) {
+            @Override
+            public int size() {
+                return apiResult.size();
+            }
+
+            @Override
+            Iterator<Map.Entry<Bytes, List<T>>> entryIterator() {
+                final Iterator<KeySlice> rows = apiResult.iterator();
+                return new RowIterator<T>() {
+                    @Override
+                    public boolean hasNext() {
+                        return rows.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<Bytes, List<T>> next() {
+                        KeySlice row = rows.next();
+                        return entry(row.key, row.columns);
+                    }
+                };
+            }
+
+            @Override
+            void index(HashMap<Bytes, List<T>> index) {
+                for (KeySlice row : apiResult)
+                    index.put(new Bytes(row.key), list(row.columns, unwrapper));
+            }
+        };
+    }
+
+    abstract static class Unwrapper<T> {
+        abstract T unwrap(ColumnOrSuperColumn cosc);
+    }
+
+    private static class CoscList<T> extends AbstractList<T> implements RandomAccess {
+        private final List<ColumnOrSuperColumn> coscList;
+        private final Unwrapper<T> unwrapper;
+
+        CoscList(List<ColumnOrSuperColumn> coscList, Unwrapper<T> unwrapper) {
+            this.coscList = coscList;
+            this.unwrapper = unwrapper;
+        }
+
+        @Override
+        public T get(int index) {
+            return unwrapper.unwrap(coscList.get(index));
+        }
+
+        @Override
+        public int size() {
+            return coscList.size();
+        }
+    }
+
+    private abstract static class RowMap<T> extends AbstractMap<Bytes, List<T>> {
+        private final Unwrapper<T> unwrapper;
+        private volatile HashMap<Bytes, List<T>> index;
+
+        RowMap(Unwrapper<T> unwrapper) {
+            this.unwrapper = unwrapper;
+        }
+
+        @Override
+        public abstract int size();
+
+        abstract Iterator<Map.Entry<Bytes, List<T>>> entryIterator();
+
+        abstract void index(HashMap<Bytes, List<T>> index);
+
+        @Override
+        public List<T> get(Object key) {
+            return key instanceof Bytes ? index().get(key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Bytes && index().containsKey(key);
+        }
+
+        @Override
+        public Set<Map.Entry<Bytes, List<T>>> entrySet() {
+            return new AbstractSet<Map.Entry<Bytes, List<T>>>() {
+                @Override
+                public Iterator<Map.Entry<Bytes, List<T>>> iterator() {
+                    return entryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return RowMap.this.size();
+                }
+            };
+        }
+
+        Map.Entry<Bytes, List<T>> entry(byte[] rowKey, List<ColumnOrSuperColumn> coscList) {
+            return new SimpleImmutableEntry<Bytes, List<T>>(new Bytes(rowKey), list(coscList, unwrapper));
+        }
+
+        private HashMap<Bytes, List<T>> index() {
+            HashMap<Bytes, List<T>> map = index;
+            if (map == null) {
+                map = new HashMap<Bytes, List<T>>(size() * 4 / 3 + 1);
+                index(map);
+                index = map;
+            }
+            return map;
+        }
+    }
+
+    private abstract static class RowIterator<T> implements Iterator<Map.Entry<Bytes, List<T>>> {
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SuperColumn;
+import org.cliffc.high_scale_lib.Counter;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+/**
+ * A client-side read-through cache of row data. A cache is attached to a connection pool using
+ * {@link ThriftPool#setRowCache(RowCache)}, after which <code>Selector</code> objects created from the pool answer reads
+ * of the column families that have been given a time to live from the cache, and <code>Mutator</code> and
+ * <code>KeyDeletor</code> objects created from the pool invalidate the cached data of the rows they modify.
+ * <p>The cache is bounded by the approximate size in bytes of the data it holds and evicts the least recently used
+ * entries first. Thrift objects are mutable, so the cache holds its own copies of the results it stores, and each
+ * read answered from the cache receives a copy of its own that the caller is free to modify.
+ * <p>Note that only writes made through the same pool are seen by the cache. Writes made by other clients only become
+ * visible once the cached entry's time to live expires.
+ */
+public class RowCache {
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final ConcurrentLinkedHashMap<Bytes, Entry> entries;
+    private final ConcurrentHashMap<Bytes, Set<Bytes>> entriesByRow = new ConcurrentHashMap<Bytes, Set<Bytes>>();
+    private final ConcurrentHashMap<String, Long> timeToLiveByCf = new ConcurrentHashMap<String, Long>();
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final Counter hits = new Counter();
+    private final Counter misses = new Counter();
+    private final Counter evictions = new Counter();
+
+    /**
+     * Create a new cache.
+     * @param maxWeight                     The maximum approximate size in bytes of the data held by the cache
+     */
+    public RowCache(int maxWeight) {
+        entries = new ConcurrentLinkedHashMap.Builder<Bytes, Entry>()
+                .maximumWeightedCapacity(maxWeight)
+                .weigher(new Weigher<Entry>() {
+                    @Override
+                    public int weightOf(Entry entry) {
+                        return entry.weight;
+                    }
+                })
+                .listener(new EvictionListener<Bytes, Entry>() {
+                    @Override
+                    public void onEviction(Bytes key, Entry entry) {
+                        evictions.increment();
+                        unindex(entry.rowRef, key);
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Enable caching for a column family. Reads of column families that have not been given a time to live are
+     * never cached.
+     * @param columnFamily                  The name of the column family
+     * @param timeToLive                    The time in milliseconds for which cached data may be served
+     */
+    public void setTimeToLive(String columnFamily, long timeToLive) {
+        if (timeToLive <= 0)
+            timeToLiveByCf.remove(columnFamily);
+        else
+            timeToLiveByCf.put(columnFamily, timeToLive);
+    }
+
+    /**
+     * Determines whether reads of a column family are cached.
+     * @param columnFamily                  The name of the column family
+     * @return                              Whether the column family is cached
+     */
+    public boolean isCached(String columnFamily) {
+        return timeToLiveByCf.containsKey(columnFamily);
+    }
+
+    /**
+     * Remove all cached data belonging to a row.
+     * @param columnFamily                  The name of the column family containing the row
+     * @param rowKey                        The key of the row
+     */
+    public void invalidate(String columnFamily, Bytes rowKey) {
+        if (!isCached(columnFamily))
+            return;
+        Bytes rowRef = newRowRef(columnFamily, rowKey);
+        // Prevent reads that are currently in flight from caching what may be stale data
+        generations.incrementAndGet(stripe(rowRef));
+        Set<Bytes> keys = entriesByRow.remove(rowRef);
+        if (keys != null)
+            for (Bytes key : keys)
+                entries.remove(key);
+    }
+
+    /**
+     * Remove all cached data.
+     */
+    public void clear() {
+        for (int i = 0; i < GENERATION_STRIPES; i++)
+            generations.incrementAndGet(i);
+        entriesByRow.clear();
+        entries.clear();
+    }
+
+    /**
+     * Get the number of reads that were answered from the cache.
+     * @return                              The hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of reads of cached column families that had to be sent to Cassandra.
+     * @return                              The miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of entries that have been evicted to keep the cache within its maximum weight.
+     * @return                              The eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the approximate size in bytes of the data currently held by the cache.
+     * @return                              The weighted size
+     */
+    public int getWeightedSize() {
+        return entries.weightedSize();
+    }
+
+    /**
+     * Get the number of entries currently held by the cache.
+     * @return                              The entry count
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * The kinds of result that can be cached. The kind forms part of the cache key, since the same row, column parent and
+     * predicate can be read as either columns or super columns.
+     */
+    static final byte COLUMN = 'c';
+    static final byte SUPER_COLUMN = 's';
+    static final byte COLUMN_LIST = 'C';
+    static final byte SUPER_COLUMN_LIST = 'S';
+
+    /**
+     * Create a reference to a slice read from a row. The reference is used to look up and store the result of the read.
+     * @return                              The reference, or <code>null</code> if reads from the column family are not cached
+     */
+    Read newRead(byte kind, Bytes rowKey, ColumnParent colParent, SlicePredicate predicate) {
+        return newRead(kind, rowKey, colParent.getColumn_family(), colParent.getSuper_column(), null, predicate);
+    }
+
+    /**
+     * Create a reference to a read of a single column or super column from a row.
+     * @return                              The reference, or <code>null</code> if reads from the column family are not cached
+     */
+    Read newRead(byte kind, Bytes rowKey, String columnFamily, byte[] superColName, byte[] colName) {
+        return newRead(kind, rowKey, columnFamily, superColName, colName, null);
+    }
+
+    private Read newRead(byte kind, Bytes rowKey, String columnFamily, byte[] superColName, byte[] colName, SlicePredicate predicate) {
+        Long timeToLive = timeToLiveByCf.get(columnFamily);
+        if (timeToLive == null)
+            return null;
+        Bytes rowRef = newRowRef(columnFamily, rowKey);
+        CacheKeyBuilder kb = new CacheKeyBuilder().append(kind).append(rowRef.getBytes()).append(superColName).append(colName);
+        if (predicate != null)
+            kb.append(predicate);
+        return new Read(kb.toBytes(), rowRef, timeToLive, generations.get(stripe(rowRef)));
+    }
+
+    /**
+     * Look up the cached result of a read.
+     * @return                              A copy of the cached result, or <code>null</code> if there is none
+     */
+    Object get(Read read) {
+        Entry entry = entries.get(read.key);
+        if (entry != null) {
+            if (entry.expiresAt > System.currentTimeMillis()) {
+                hits.increment();
+                return copy(entry.value);
+            }
+            if (entries.remove(read.key, entry))
+                unindex(entry.rowRef, read.key);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Store a copy of the result of a read, so that the caller may go on to modify the result. The result is
+     * discarded if the row was invalidated since the read was created.
+     */
+    void put(Read read, Object value, int weight) {
+        int stripe = stripe(read.rowRef);
+        if (generations.get(stripe) != read.generation)
+            return;
+        Set<Bytes> keys = entriesByRow.get(read.rowRef);
+        if (keys == null) {
+            Set<Bytes> newKeys = Collections.newSetFromMap(new ConcurrentHashMap<Bytes, Boolean>());
+            keys = entriesByRow.putIfAbsent(read.rowRef, newKeys);
+            if (keys == null)
+                keys = newKeys;
+        }
+        keys.add(read.key);
+        entries.put(read.key, new Entry(read.rowRef, copy(value), System.currentTimeMillis() + read.timeToLive, Math.max(weight, 1)));
+        // An invalidation may have raced with the store, in which case undo it
+        if (generations.get(stripe) != read.generation) {
+            entries.remove(read.key);
+            keys.remove(read.key);
+        }
+    }
+
+    static int weigh(Column column) {
+        return AdaptivePageSizer.estimateSize(column);
+    }
+
+    static int weigh(SuperColumn superColumn) {
+        return AdaptivePageSizer.estimateSize(superColumn);
+    }
+
+    static int weighColumns(List<Column> columns) {
+        int weight = 0;
+        for (Column column : columns)
+            weight += weigh(column);
+        return weight;
+    }
+
+    static int weighSuperColumns(List<SuperColumn> superColumns) {
+        int weight = 0;
+        for (SuperColumn superColumn : superColumns)
+            weight += weigh(superColumn);
+        return weight;
+    }
+
+    /**
+     * Copy a column, a super column or a list of either. Lists are copied into a modifiable <code>ArrayList</code>.
+     */
+    @SuppressWarnings("unchecked")
+    static Object copy(Object value) {
+        if (value instanceof Column)
+            return new Column((Column) value);
+        if (value instanceof SuperColumn)
+            return new SuperColumn((SuperColumn) value);
+        List<Object> list = (List<Object>) value;
+        List<Object> copy = new ArrayList<Object>(list.size());
+        for (Object element : list)
+            copy.add(copy(element));
+        return copy;
+    }
+
+    private void unindex(Bytes rowRef, Bytes key) {
+        Set<Bytes> keys = entriesByRow.get(rowRef);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty())
+                entriesByRow.remove(rowRef, keys);
+        }
+    }
+
+    private static Bytes newRowRef(String columnFamily, Bytes rowKey) {
+        return new CacheKeyBuilder().append(columnFamily).append(Bytes.nullSafeGet(rowKey)).toBytes();
+    }
+
+    private static int stripe(Bytes rowRef) {
+        return (rowRef.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    /**
+     * A pending read from a cached column family.
+     */
+    static class Read {
+        private final Bytes key;
+        private final Bytes rowRef;
+        private final long timeToLive;
+        private final long generation;
+
+        Read(Bytes key, Bytes rowRef, long timeToLive, long generation) {
+            this.key = key;
+            this.rowRef = rowRef;
+            this.timeToLive = timeToLive;
+            this.generation = generation;
+        }
+    }
+
+    private static class Entry {
+        private final Bytes rowRef;
+        private final Object value;
+        private final long expiresAt;
+        private final int weight;
+
+        Entry(Bytes rowRef, Object value, long expiresAt, int weight) {
+            this.rowRef = rowRef;
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.weight = weight;
+        }
+    }
+}
@@ -3,10 +3,10 @@ package org.wyki.cassandra.pelops;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.cassandra.thrift.*;
 import org.wyki.cassandra.pelops.ThriftPool.Connection;
@@ -15,11 +15,27 @@ import static org.wyki.cassandra.pelops.Bytes.*;
 
 /**
  * Facilitates the selective retrieval of column data from rows in a Cassandra keyspace.
+ * <p>If a {@link RowCache} has been attached to the pool, single-row reads of cached column families are answered
+ * from the cache where possible. Each such read returns its own copy of the cached columns.
+ * <p>The maps returned by reads of multiple rows are read-only views over the Thrift response, which unwrap row keys
+ * and columns as they are accessed rather than copying the whole result.
  *
  * @author dominicwilliams
  *
  */
 public class Selector extends Operand {
+    private boolean coalesceReads;
+
+    /**
+     * Set whether identical single-row reads issued concurrently by this and other selectors created from the same pool
+     * should be coalesced, so that only one of them is sent to Cassandra while the others wait for and share its result.
+     * Each coalesced read receives its own copy of the shared result. The default is taken from the pool's <code>GeneralPolicy</code>.
+     * @param coalesceReads                 Whether reads should be coalesced
+     */
+    public void setCoalesceReads(boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+    }
+
     /**
      * Get the count of columns in a row.
      * @param rowKey                        The key of the row
@@ -116,16 +132,78 @@ public class Selector extends Operand {
      * @throws Exception if an error occurs
      */
     public Column getColumnFromRow(final Bytes rowKey, final String columnFamily, final Bytes colName, final ConsistencyLevel cLevel) throws Exception {
+        return getColumn(rowKey, columnFamily, null, colName, false, cLevel);
+    }
+
+    /**
+     * Retrieve a column from a row, or <code>null</code> if the column does not exist. Unlike <code>getColumnFromRow</code>
+     * no exception is thrown when the column is missing, which makes this the cheaper choice for existence checks,
+     * particularly when a {@link NegativeCache} is attached to the pool.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the column
+     * @param colName                       The name of the column to retrieve
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              The requested <code>Column</code>, or <code>null</code> if it does not exist
+     * @throws Exception if an error occurs
+     */
+    public Column getColumnFromRowOrNull(final String rowKey, final String columnFamily, final String colName, final ConsistencyLevel cLevel) throws Exception {
+        return getColumn(fromUTF8(rowKey), columnFamily, null, fromUTF8(colName), true, cLevel);
+    }
+
+    /**
+     * Retrieve a column from a row, or <code>null</code> if the column does not exist. Unlike <code>getColumnFromRow</code>
+     * no exception is thrown when the column is missing, which makes this the cheaper choice for existence checks,
+     * particularly when a {@link NegativeCache} is attached to the pool.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the column
+     * @param colName                       The name of the column to retrieve
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              The requested <code>Column</code>, or <code>null</code> if it does not exist
+     * @throws Exception if an error occurs
+     */
+    public Column getColumnFromRowOrNull(final Bytes rowKey, final String columnFamily, final Bytes colName, final ConsistencyLevel cLevel) throws Exception {
+        return getColumn(rowKey, columnFamily, null, colName, true, cLevel);
+    }
+
+    private Column getColumn(final Bytes rowKey, final String columnFamily, final Bytes superColName, final Bytes colName, boolean nullIfMissing, final ConsistencyLevel cLevel) throws Exception {
+        RowCache cache = thrift.getRowCache();
+        RowCache.Read cacheRead = cache != null ? cache.newRead(RowCache.COLUMN, rowKey, columnFamily, nullSafeGet(superColName), nullSafeGet(colName)) : null;
+        if (cacheRead != null) {
+            Column cached = (Column) cache.get(cacheRead);
+            if (cached != null)
+                return cached;
+        }
+        NegativeCache negativeCache = thrift.getNegativeCache();
+        NegativeCache.Probe probe = negativeCache != null ? negativeCache.newProbe(columnFamily, rowKey, nullSafeGet(superColName), nullSafeGet(colName)) : null;
+        if (probe != null && negativeCache.isMissing(probe)) {
+            if (nullIfMissing)
+                return null;
+            throw new NotFoundException();
+        }
         IOperation operation = new IOperation() {
             @Override
             public Object execute(Connection conn) throws Exception {
                 ColumnPath cp = new ColumnPath(columnFamily);
+                cp.setSuper_column(nullSafeGet(superColName));
                 cp.setColumn(nullSafeGet(colName));
                 ColumnOrSuperColumn cosc = conn.getAPI().get(nullSafeGet(rowKey), cp, cLevel);
+                decompress(columnFamily, cosc);
                 return cosc.column;
             }
         };
-        return (Column) tryOperation(operation);
+        Column column;
+        try {
+            column = (Column) tryOperation(operation);
+        } catch (NotFoundException e) {
+            if (probe != null)
+                negativeCache.putMissing(probe);
+            if (nullIfMissing)
+                return null;
+            throw e;
+        }
+        if (cacheRead != null)
+            cache.put(cacheRead, column, RowCache.weigh(column));
+        return column;
     }
 
     /**
@@ -164,16 +242,38 @@ public class Selector extends Operand {
      * @throws Exception if an error occurs
      */
     public SuperColumn getSuperColumnFromRow(final Bytes rowKey, final String columnFamily, final Bytes superColName, final ConsistencyLevel cLevel) throws Exception {
+        RowCache cache = thrift.getRowCache();
+        RowCache.Read cacheRead = cache != null ? cache.newRead(RowCache.SUPER_COLUMN, rowKey, columnFamily, nullSafeGet(superColName), null) : null;
+        if (cacheRead != null) {
+            SuperColumn cached = (SuperColumn) cache.get(cacheRead);
+            if (cached != null)
+                return cached;
+        }
+        NegativeCache negativeCache = thrift.getNegativeCache();
+        NegativeCache.Probe probe = negativeCache != null ? negativeCache.newProbe(columnFamily, rowKey, nullSafeGet(superColName), null) : null;
+        if (probe != null && negativeCache.isMissing(probe))
+            throw new NotFoundException();
         IOperation operation = new IOperation() {
             @Override
             public Object execute(Connection conn) throws Exception {
                 ColumnPath cp = new ColumnPath(columnFamily);
                 cp.setSuper_column(nullSafeGet(superColName));
                 ColumnOrSuperColumn cosc = conn.getAPI().get(nullSafeGet(rowKey), cp, cLevel);
+                decompress(columnFamily, cosc);
                 return cosc.super_column;
             }
         };
-        return (SuperColumn) tryOperation(operation);
+        SuperColumn superColumn;
+        try {
+            superColumn = (SuperColumn) tryOperation(operation);
+        } catch (NotFoundException e) {
+            if (probe != null)
+                negativeCache.putMissing(probe);
+            throw e;
+        }
+        if (cacheRead != null)
+            cache.put(cacheRead, superColumn, RowCache.weigh(superColumn));
+        return superColumn;
     }
 
     /**
@@ -243,17 +343,21 @@ public class Selector extends Operand {
      * @throws Exception if an error occurs
      */
     public Column getSubColumnFromRow(final Bytes rowKey, final String columnFamily, final Bytes superColName, final Bytes subColName, final ConsistencyLevel cLevel) throws Exception {
-        IOperation operation = new IOperation() {
-            @Override
-            public Object execute(Connection conn) throws Exception {
-                ColumnPath cp = new ColumnPath(columnFamily);
-                cp.setSuper_column(nullSafeGet(superColName));
-                cp.setColumn(nullSafeGet(subColName));
-                ColumnOrSuperColumn cosc = conn.getAPI().get(nullSafeGet(rowKey), cp, cLevel);
-                return cosc.column;
-            }
-        };
-        return (Column) tryOperation(operation);
+        return getColumn(rowKey, columnFamily, superColName, subColName, false, cLevel);
+    }
+
+    /**
+     * Retrieve a sub column from a super column in a row, or <code>null</code> if the sub column does not exist.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the super column
+     * @param superColName                  The name of the super column containing the sub column
+     * @param subColName                    The name of the sub column to retrieve
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              The requested <code>Column</code>, or <code>null</code> if it does not exist
+     * @throws Exception if an error occurs
+     */
+    public Column getSubColumnFromRowOrNull(final Bytes rowKey, final String columnFamily, final Bytes superColName, final Bytes subColName, final ConsistencyLevel cLevel) throws Exception {
+        return getColumn(rowKey, columnFamily, superColName, subColName, true, cLevel);
     }
 
     /**
@@ -300,6 +404,46 @@ public class Selector extends Operand {
         return getColumnsFromRow(rowKey, newColumnParent(columnFamily, superColName), colPredicate, cLevel);
     }
 
+    /**
+     * Retrieve columns from a row as an index that supports fast lookup of the columns by name.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the columns
+     * @param colPredicate                  The column selector predicate
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              An index of the matching columns
+     * @throws Exception if an error occurs
+     */
+    public ColumnIndex getIndexedColumnsFromRow(String rowKey, String columnFamily, SlicePredicate colPredicate, ConsistencyLevel cLevel) throws Exception {
+        return getIndexedColumnsFromRow(fromUTF8(rowKey), columnFamily, colPredicate, cLevel);
+    }
+
+    /**
+     * Retrieve columns from a row as an index that supports fast lookup of the columns by name.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the columns
+     * @param colPredicate                  The column selector predicate
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              An index of the matching columns
+     * @throws Exception if an error occurs
+     */
+    public ColumnIndex getIndexedColumnsFromRow(Bytes rowKey, String columnFamily, SlicePredicate colPredicate, ConsistencyLevel cLevel) throws Exception {
+        return ColumnIndex.of(getColumnsFromRow(rowKey, newColumnParent(columnFamily), colPredicate, cLevel));
+    }
+
+    /**
+     * Retrieve sub-columns from a super column in a row as an index that supports fast lookup of the columns by name.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the super columns
+     * @param superColName                  The name of the super column
+     * @param colPredicate                  The sub-column selector predicate
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              An index of the matching columns
+     * @throws Exception if an error occurs
+     */
+    public ColumnIndex getIndexedSubColumnsFromRow(Bytes rowKey, String columnFamily, Bytes superColName, SlicePredicate colPredicate, ConsistencyLevel cLevel) throws Exception {
+        return ColumnIndex.of(getColumnsFromRow(rowKey, newColumnParent(columnFamily, superColName), colPredicate, cLevel));
+    }
+
     @SuppressWarnings("unchecked")
     private List<Column> getColumnsFromRow(final String rowKey, final ColumnParent colParent, final SlicePredicate colPredicate, final ConsistencyLevel cLevel) throws Exception {
         return getColumnsFromRow(fromUTF8(rowKey), colParent, colPredicate, cLevel);
@@ -307,10 +451,54 @@ public class Selector extends Operand {
 
     @SuppressWarnings("unchecked")
     private List<Column> getColumnsFromRow(final Bytes rowKey, final ColumnParent colParent, final SlicePredicate colPredicate, final ConsistencyLevel cLevel) throws Exception {
+        RowCache cache = thrift.getRowCache();
+        RowCache.Read cacheRead = cache != null ? cache.newRead(RowCache.COLUMN_LIST, rowKey, colParent, colPredicate) : null;
+        if (cacheRead != null) {
+            List<Column> cached = (List<Column>) cache.get(cacheRead);
+            if (cached != null)
+                return cached;
+        }
+        // A negative cache can only answer for, and learn from, slices of the entire row or super column
+        NegativeCache negativeCache = isSliceOfAll(colPredicate) ? thrift.getNegativeCache() : null;
+        NegativeCache.Probe probe = negativeCache != null ? negativeCache.newProbe(colParent.getColumn_family(), rowKey, colParent.getSuper_column(), null) : null;
+        if (probe != null && negativeCache.isMissing(probe))
+            return Collections.emptyList();
         IOperation operation = new IOperation() {
             @Override
             public Object execute(Connection conn) throws Exception {
                 List<ColumnOrSuperColumn> apiResult = conn.getAPI().get_slice(nullSafeGet(rowKey), colParent, colPredicate, cLevel);
+                decompress(colParent.getColumn_family(), apiResult);
+                List<Column> result = new ArrayList<Column>(apiResult.size());
+                for (ColumnOrSuperColumn cosc : apiResult)
+                    result.add(cosc.column);
+                return result;
+            }
+        };
+        List<Column> columns = (List<Column>) tryCoalescedOperation(RowCache.COLUMN_LIST, rowKey, colParent, colPredicate, cLevel, operation);
+        if (probe != null && columns.isEmpty())
+            negativeCache.putMissing(probe);
+        if (cacheRead != null)
+            cache.put(cacheRead, columns, RowCache.weighColumns(columns));
+        return columns;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Column> getColumnsFromRow(final Bytes rowKey, final ColumnParent colParent, final SlicePredicate colPredicate, final AdaptivePageSizer pageSizer, final ConsistencyLevel cLevel) throws Exception {
+        IOperation operation = new IOperation() {
+            @Override
+            public Object execute(Connection conn) throws Exception {
+                // Re-read the page size since a previous attempt may have timed out and halved it
+                colPredicate.getSlice_range().setCount(pageSizer.getPageSize());
+                long start = System.nanoTime();
+                List<ColumnOrSuperColumn> apiResult;
+                try {
+                    apiResult = conn.getAPI().get_slice(nullSafeGet(rowKey), colParent, colPredicate, cLevel);
+                } catch (TimedOutException e) {
+                    pageSizer.onTimeout();
+                    throw e;
+                }
+                pageSizer.onPage(apiResult.size(), AdaptivePageSizer.estimateSize(apiResult), System.nanoTime() - start);
+                decompress(colParent.getColumn_family(), apiResult);
                 List<Column> result = new ArrayList<Column>(apiResult.size());
                 for (ColumnOrSuperColumn cosc : apiResult)
                     result.add(cosc.column);
@@ -320,6 +508,19 @@ public class Selector extends Operand {
         return (List<Column>) tryOperation(operation);
     }
 
+    /**
+     * Retrieve super columns from a row as an index that supports fast lookup of the super columns by name.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the super columns
+     * @param colPredicate                  The super column selector predicate
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              An index of the matching super columns
+     * @throws Exception if an error occurs
+     */
+    public SuperColumnIndex getIndexedSuperColumnsFromRow(Bytes rowKey, String columnFamily, SlicePredicate colPredicate, ConsistencyLevel cLevel) throws Exception {
+        return SuperColumnIndex.of(getSuperColumnsFromRow(rowKey, columnFamily, colPredicate, cLevel));
+    }
+
     /**
      * Retrieve super columns from a row.
      * @param rowKey                        The key of the row
@@ -345,17 +546,28 @@ public class Selector extends Operand {
      */
     @SuppressWarnings("unchecked")
     public List<SuperColumn> getSuperColumnsFromRow(final Bytes rowKey, final String columnFamily, final SlicePredicate colPredicate, final ConsistencyLevel cLevel) throws Exception {
+        RowCache cache = thrift.getRowCache();
+        RowCache.Read cacheRead = cache != null ? cache.newRead(RowCache.SUPER_COLUMN_LIST, rowKey, newColumnParent(columnFamily), colPredicate) : null;
+        if (cacheRead != null) {
+            List<SuperColumn> cached = (List<SuperColumn>) cache.get(cacheRead);
+            if (cached != null)
+                return cached;
+        }
         IOperation operation = new IOperation() {
             @Override
             public Object execute(Connection conn) throws Exception {
                 List<ColumnOrSuperColumn> apiResult = conn.getAPI().get_slice(nullSafeGet(rowKey), newColumnParent(columnFamily), colPredicate, cLevel);
+                decompress(columnFamily, apiResult);
                 List<SuperColumn> result = new ArrayList<SuperColumn>(apiResult.size());
                 for (ColumnOrSuperColumn cosc : apiResult)
                     result.add(cosc.super_column);
                 return result;
             }
         };
-        return (List<SuperColumn>) tryOperation(operation);
+        List<SuperColumn> superColumns = (List<SuperColumn>) tryCoalescedOperation(RowCache.SUPER_COLUMN_LIST, rowKey, newColumnParent(columnFamily), colPredicate, cLevel, operation);
+        if (cacheRead != null)
+            cache.put(cacheRead, superColumns, RowCache.weighSuperColumns(superColumns));
+        return superColumns;
     }
 
     public enum OrderType {
@@ -364,7 +576,15 @@ public class Selector extends Operand {
         UTF8Type,
         LongType,
         LexicalUUIDType,
-        TimeUUIDType
+        TimeUUIDType;
+
+        /**
+         * Get a comparator that orders names as a column family with this comparator type does.
+         * @return                              The comparator
+         */
+        public BytesComparator getComparator() {
+            return BytesComparator.forOrderType(this);
+        }
     }
 
     /**
@@ -381,21 +601,30 @@ public class Selector extends Operand {
      */
     public List<Column> getPageOfColumnsFromRow(final String rowKey, final String columnFamily, final Bytes startBeyondName, final OrderType orderType, final boolean reversed, final int count, final ConsistencyLevel cLevel) throws Exception {
 
-        SlicePredicate predicate;
-        if (startBeyondName == null)
-            predicate = Selector.newColumnsPredicateAll(reversed, count);
-        else {
-            Bytes startName;
-            if (reversed)
-                startName = Selector.bumpDownColumnName(startBeyondName, orderType);
-            else
-                startName = Selector.bumpUpColumnName(startBeyondName, orderType);
-
-            predicate = Selector.newColumnsPredicate(startName, Bytes.EMPTY, reversed, count);
-        }
+        SlicePredicate predicate = newPagePredicate(startBeyondName, orderType, reversed, count);
         return getColumnsFromRow(rowKey, columnFamily, predicate, cLevel);
     }
 
+    /**
+     * Retrieve a page of columns composed from a segment of the sequence of columns in a row. The number of columns
+     * requested is determined by the page sizer, which adapts it to the size of the columns and the latency seen
+     * on previous pages. If the request times out, the page size is halved before the request is retried.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the columns
+     * @param startBeyondName               The sequence of columns must begin with the smallest column name greater than this value. Pass <code>null</code> to start at the beginning of the sequence.
+     * @param orderType                     The scheme used to determine how the column names are ordered
+     * @param reversed                      Whether the scan should proceed in descending column name order
+     * @param pageSizer                     Determines the maximum number of columns that can be retrieved by the scan
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              A page of columns
+     * @throws Exception if an error occurs
+     */
+    public List<Column> getPageOfColumnsFromRow(final String rowKey, final String columnFamily, final Bytes startBeyondName, final OrderType orderType, final boolean reversed, final AdaptivePageSizer pageSizer, final ConsistencyLevel cLevel) throws Exception {
+
+        SlicePredicate predicate = newPagePredicate(startBeyondName, orderType, reversed, pageSizer.getPageSize());
+        return getColumnsFromRow(fromUTF8(rowKey), newColumnParent(columnFamily), predicate, pageSizer, cLevel);
+    }
+
     /**
      * Retrieve a page of super columns composed from a segment of the sequence of super columns in a row.
      * @param rowKey                        The key of the row
@@ -410,23 +639,54 @@ public class Selector extends Operand {
      */
     public List<SuperColumn> getPageOfSuperColumnsFromRow(final String rowKey, final String columnFamily, final Bytes startBeyondName, final OrderType orderType, final boolean reversed, final int count, final ConsistencyLevel cLevel) throws Exception {
 
-        SlicePredicate predicate;
-        if (startBeyondName == null)
-            predicate = Selector.newColumnsPredicateAll(reversed, count);
-        else {
-            Bytes startName;
-            if (reversed)
-                startName = Selector.bumpDownColumnName(startBeyondName, orderType);
-            else
-                startName = Selector.bumpUpColumnName(startBeyondName, orderType);
-
-            predicate = Selector.newColumnsPredicate(startName, Bytes.EMPTY, reversed, count);
-        }
+        SlicePredicate predicate = newPagePredicate(startBeyondName, orderType, reversed, count);
         return getSuperColumnsFromRow(rowKey, columnFamily, predicate, cLevel);
     }
 
+    /**
+     * Retrieve a page of super columns composed from a segment of the sequence of super columns in a row. The number
+     * of super columns requested is determined by the page sizer, which adapts it to the size of the super columns and
+     * the latency seen on previous pages. If the request times out, the page size is halved before the request is retried.
+     * @param rowKey                        The key of the row
+     * @param columnFamily                  The name of the column family containing the super columns
+     * @param startBeyondName               The sequence of super columns must begin with the smallest super column name greater than this value. Pass <code>null</code> to start at the beginning of the sequence.
+     * @param orderType                     The scheme used to determine how the column names are ordered
+     * @param reversed                      Whether the scan should proceed in descending super column name order
+     * @param pageSizer                     Determines the maximum number of super columns that can be retrieved by the scan
+     * @param cLevel                        The Cassandra consistency level with which to perform the operation
+     * @return                              A page of super columns
+     * @throws Exception if an error occurs
+     */
+    @SuppressWarnings("unchecked")
+    public List<SuperColumn> getPageOfSuperColumnsFromRow(final String rowKey, final String columnFamily, final Bytes startBeyondName, final OrderType orderType, final boolean reversed, final AdaptivePageSizer pageSizer, final ConsistencyLevel cLevel) throws Exception {
+
+        final SlicePredicate predicate = newPagePredicate(startBeyondName, orderType, reversed, pageSizer.getPageSize());
+        IOperation operation = new IOperation() {
+            @Override
+            public Object execute(Connection conn) throws Exception {
+                predicate.getSlice_range().setCount(pageSizer.getPageSize());
+                long start = System.nanoTime();
+                List<ColumnOrSuperColumn> apiResult;
+                try {
+                    apiResult = conn.getAPI().get_slice(nullSafeGet(fromUTF8(rowKey)), newColumnParent(columnFamily), predicate, cLevel);
+                } catch (TimedOutException e) {
+                    pageSizer.onTimeout();
+                    throw e;
+                }
+                pageSizer.onPage(apiResult.size(), AdaptivePageSizer.estimateSize(apiResult), System.nanoTime() - start);
+                decompress(columnFamily, apiResult);
+                List<SuperColumn> result = new ArrayList<SuperColumn>(apiResult.size());
+                for (ColumnOrSuperColumn cosc : apiResult)
+                    result.add(cosc.super_column);
+                return result;
+            }
+        };
+        return (List<SuperColumn>) tryOperation(operation);
+    }
+
     /**
      * Retrieve columns from a set of rows.
+     * The map returned, and the lists it holds, are read-only views of the result.
      * @param rowKeys                        The keys of the rows
      * @param columnFamily                   The name of the column family containing the columns
      * @param colPredicate                   The column selector predicate
@@ -441,6 +701,7 @@ public class Selector extends Operand {
 
     /**
      * Retrieve sub-columns from a super column in a set of rows.
+     * The map returned, and the lists it holds, are read-only views of the result.
      * @param rowKeys                        The keys of the rows
      * @param columnFamily                   The name of the column family containing the super columns
      * @param superColName                   The name of the super column
@@ -456,6 +717,7 @@ public class Selector extends Operand {
 
     /**
      * Retrieve sub-columns from a super column in a set of rows.
+     * The map returned, and the lists it holds, are read-only views of the result.
      * @param rowKeys                        The keys of the rows
      * @param columnFamily                   The name of the column family containing the super columns
      * @param superColName                   The name of the super column
@@ -471,6 +733,7 @@ public class Selector extends Operand {
 
     /**
      * Retrieve super columns from a set of rows.
+     * The map returned, and the lists it holds, are read-only views of the result.
      * @param rowKeys                        The keys of the rows
      * @param columnFamily                   The name of the column family containing the super columns
      * @param colPredicate                   The super column selector predicate
@@ -484,15 +747,8 @@ public class Selector extends Operand {
             @Override
             public Object execute(Connection conn) throws Exception {
                 Map<byte[], List<ColumnOrSuperColumn>> apiResult = conn.getAPI().multiget_slice(Bytes.transform(rowKeys), newColumnParent(columnFamily), colPredicate, cLevel);
-                Map<Bytes, List<SuperColumn>> result = new HashMap<Bytes, List<SuperColumn>>();
-                for (byte[] rowKey : apiResult.keySet()) {
-                    List<ColumnOrSuperColumn> coscList = apiResult.get(rowKey);
-                    List<SuperColumn> columns = new ArrayList<SuperColumn>(coscList.size());
-                    for (ColumnOrSuperColumn cosc : coscList)
-                        columns.add(cosc.super_column);
-                    result.put(Bytes.fromBytes(rowKey), columns);
-                }
-                return result;
+                decompressRows(columnFamily, apiResult);
+                return ResultViews.rows(apiResult, ResultViews.SUPER_COLUMN);
             }
         };
         return (Map<Bytes, List<SuperColumn>>) tryOperation(operation);
@@ -504,15 +760,8 @@ public class Selector extends Operand {
             @Override
             public Object execute(Connection conn) throws Exception {
                 Map<byte[], List<ColumnOrSuperColumn>> apiResult = conn.getAPI().multiget_slice(Bytes.transform(rowKeys), colParent, colPredicate, cLevel);
-                Map<Bytes, List<Column>> result = new HashMap<Bytes, List<Column>>();
-                for (byte[] rowKey : apiResult.keySet()) {
-                    List<ColumnOrSuperColumn> coscList = apiResult.get(rowKey);
-                    List<Column> columns = new ArrayList<Column>(coscList.size());
-                    for (ColumnOrSuperColumn cosc : coscList)
-                        columns.add(cosc.column);
-                    result.put(Bytes.fromBytes(rowKey), columns);
-                }
-                return result;
+                decompressRows(colParent.getColumn_family(), apiResult);
+                return ResultViews.rows(apiResult, ResultViews.COLUMN);
             }
         };
         return (Map<Bytes, List<Column>>) tryOperation(operation);
@@ -521,8 +770,8 @@ public class Selector extends Operand {
     /**
      * Retrieve columns from a range of rows.
      * The method returns a map from the keys of rows in the specified range to lists of columns from the rows. The map
-     * returned is a <code>LinkedHashMap</code> and its key iterator proceeds in the order that the key data was returned by
-     * Cassandra. If the cluster uses the RandomPartitioner, this order appears random.
+     * returned, and the lists it holds, are read-only views of the result, and its key iterator proceeds in the order
+     * that the key data was returned by Cassandra. If the cluster uses the RandomPartitioner, this order appears random.
      * @param keyRange                        A key range selecting the rows
      * @param columnFamily                    The name of the column family containing the columns
      * @param colPredicate                    The column selector predicate
@@ -535,11 +784,51 @@ public class Selector extends Operand {
         return getColumnsFromRows(keyRange, newColumnParent(columnFamily), colPredicate, cLevel);
     }
 
+    /**
+     * Retrieve columns from a range of rows, where the maximum number of rows returned is determined by a page sizer.
+     * The count of the key range is ignored, and replaced with a count adapted to the size of the rows and the latency
+     * seen on previous pages. If the request times out, the page size is halved before the request is retried.
+     * The map returned, and the lists it holds, are read-only views of the result, and its key iterator proceeds in the
+     * order that the key data was returned by Cassandra. If the cluster uses the RandomPartitioner, this order appears random.
+     * @param keyRange                        A key range selecting the rows
+     * @param columnFamily                    The name of the column family containing the columns
+     * @param colPredicate                    The column selector predicate
+     * @param pageSizer                       Determines the maximum number of rows that can be retrieved by the scan
+     * @param cLevel                          The Cassandra consistency level with which to perform the operation
+     * @return                                A map from row keys to the matching lists of columns
+     * @throws Exception if an error occurs
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Bytes, List<Column>> getColumnsFromRows(final KeyRange keyRange, final String columnFamily, final SlicePredicate colPredicate, final AdaptivePageSizer pageSizer, final ConsistencyLevel cLevel) throws Exception {
+        final KeyRange pageRange = new KeyRange(keyRange);
+        IOperation operation = new IOperation() {
+            @Override
+            public Object execute(Connection conn) throws Exception {
+                pageRange.setCount(pageSizer.getPageSize());
+                long start = System.nanoTime();
+                List<KeySlice> apiResult;
+                try {
+                    apiResult = conn.getAPI().get_range_slices(newColumnParent(columnFamily), colPredicate, pageRange, cLevel);
+                } catch (TimedOutException e) {
+                    pageSizer.onTimeout();
+                    throw e;
+                }
+                long bytes = 0;
+                for (KeySlice ks : apiResult)
+                    bytes += ks.key.length + AdaptivePageSizer.estimateSize(ks.columns);
+                pageSizer.onPage(apiResult.size(), bytes, System.nanoTime() - start);
+                decompressRows(columnFamily, apiResult);
+                return ResultViews.rows(apiResult, ResultViews.COLUMN);
+            }
+        };
+        return (Map<Bytes, List<Column>>) tryOperation(operation);
+    }
+
     /**
      * Retrieve sub-columns from a super column in a range of rows.
      * The method returns a map from the keys of rows in the specified range to lists of sub-columns from the rows. The map
-     * returned is a <code>LinkedHashMap</code> and its key iterator proceeds in the order that the key data was returned by
-     * Cassandra. If the cluster uses the RandomPartitioner, this order appears random.
+     * returned, and the lists it holds, are read-only views of the result, and its key iterator proceeds in the order
+     * that the key data was returned by Cassandra. If the cluster uses the RandomPartitioner, this order appears random.
      * @param keyRange                        A key range selecting the rows
      * @param columnFamily                    The name of the column family containing the super columns
      * @param superColName                    The name of the super column
@@ -556,8 +845,8 @@ public class Selector extends Operand {
     /**
      * Retrieve sub-columns from a super column in a range of rows.
      * The method returns a map from the keys of rows in the specified range to lists of sub-columns from the rows. The map
-     * returned is a <code>LinkedHashMap</code> and its key iterator proceeds in the order that the key data was returned by
-     * Cassandra. If the cluster uses the RandomPartitioner, this order appears random.
+     * returned, and the lists it holds, are read-only views of the result, and its key iterator proceeds in the order
+     * that the key data was returned by Cassandra. If the cluster uses the RandomPartitioner, this order appears random.
      * @param keyRange                        A key range selecting the rows
      * @param columnFamily                    The name of the column family containing the super columns
      * @param superColName                    The name of the super column
@@ -574,8 +863,8 @@ public class Selector extends Operand {
     /**
      * Retrieve super columns from a range of rows.
      * The method returns a map from the keys of rows in the specified range to lists of super columns from the rows. The map
-     * returned is a <code>LinkedHashMap</code> and its key iterator proceeds in the order that the key data was returned by
-     * Cassandra. If the cluster uses the RandomPartitioner, this order appears random.
+     * returned, and the lists it holds, are read-only views of the result, and its key iterator proceeds in the order
+     * that the key data was returned by Cassandra. If the cluster uses the RandomPartitioner, this order appears random.
      * @param keyRange                        A key range selecting the rows
      * @param columnFamily                    The name of the column family containing the super columns
      * @param colPredicate                    The super column selector predicate
@@ -589,35 +878,121 @@ public class Selector extends Operand {
             @Override
             public Object execute(Connection conn) throws Exception {
                 List<KeySlice> apiResult = conn.getAPI().get_range_slices(newColumnParent(columnFamily), colPredicate, keyRange, cLevel);
-                Map<Bytes, List<SuperColumn>> result = new LinkedHashMap<Bytes, List<SuperColumn>>();
-                for (KeySlice ks : apiResult) {
-                    List<ColumnOrSuperColumn> coscList = ks.columns;
-                    List<SuperColumn> colList = new ArrayList<SuperColumn>(coscList.size());
-                    for (ColumnOrSuperColumn cosc : coscList)
-                        colList.add(cosc.super_column);
-                    result.put(fromBytes(ks.key), colList);
-                }
-                return result;
+                decompressRows(columnFamily, apiResult);
+                return ResultViews.rows(apiResult, ResultViews.SUPER_COLUMN);
             }
         };
         return (Map<Bytes, List<SuperColumn>>) tryOperation(operation);
     }
 
+    /**
+     * Visit the columns (or super columns) of a range of rows as they are read from the response. Unlike
+     * {@link #getColumnsFromRows(KeyRange, String, SlicePredicate, ConsistencyLevel)}, the response is not deserialized in
+     * full before it is processed, so the memory used is bounded by the size of the largest row rather than the size of
+     * the response. This only holds when the pool does not use framed transport (see
+     * {@link ThriftPoolPolicy#setFramedTransportRequired(boolean)}): <code>TFramedTransport</code> reads each
+     * whole response frame into a buffer before any of it is decoded, so with framed connections the memory used is the
+     * size of the response, although the rows are still not deserialized into objects all at once. The operation is
+     * only retried if it fails before the first row has been visited.
+     * @param keyRange                        A key range selecting the rows
+     * @param columnFamily                    The name of the column family containing the columns
+     * @param colPredicate                    The column selector predicate
+     * @param visitor                         Receives the rows and columns
+     * @param cLevel                          The Cassandra consistency level with which to perform the operation
+     * @throws Exception if an error occurs
+     */
+    public void visitColumnsFromRows(KeyRange keyRange, String columnFamily, SlicePredicate colPredicate, SliceVisitor visitor, ConsistencyLevel cLevel) throws Exception {
+        visitColumnsFromRows(keyRange, newColumnParent(columnFamily), colPredicate, visitor, cLevel);
+    }
+
+    /**
+     * Visit the sub-columns of a super column in a range of rows as they are read from the response.
+     * @param keyRange                        A key range selecting the rows
+     * @param columnFamily                    The name of the column family containing the super columns
+     * @param superColName                    The name of the super column
+     * @param colPredicate                    The sub-column selector predicate
+     * @param visitor                         Receives the rows and columns
+     * @param cLevel                          The Cassandra consistency level with which to perform the operation
+     * @throws Exception if an error occurs
+     * @see #visitColumnsFromRows(KeyRange, String, SlicePredicate, SliceVisitor, ConsistencyLevel)
+     */
+    public void visitSubColumnsFromRows(KeyRange keyRange, String columnFamily, Bytes superColName, SlicePredicate colPredicate, SliceVisitor visitor, ConsistencyLevel cLevel) throws Exception {
+        visitColumnsFromRows(keyRange, newColumnParent(columnFamily, superColName), colPredicate, visitor, cLevel);
+    }
+
+    /**
+     * Visit the columns (or super columns) of a set of rows as they are read from the response.
+     * @param rowKeys                         The keys of the rows
+     * @param columnFamily                    The name of the column family containing the columns
+     * @param colPredicate                    The column selector predicate
+     * @param visitor                         Receives the rows and columns
+     * @param cLevel                          The Cassandra consistency level with which to perform the operation
+     * @throws Exception if an error occurs
+     * @see #visitColumnsFromRows(KeyRange, String, SlicePredicate, SliceVisitor, ConsistencyLevel)
+     */
+    public void visitColumnsFromRows(List<Bytes> rowKeys, String columnFamily, SlicePredicate colPredicate, SliceVisitor visitor, ConsistencyLevel cLevel) throws Exception {
+        visitColumnsFromRows(rowKeys, newColumnParent(columnFamily), colPredicate, visitor, cLevel);
+    }
+
+    /**
+     * Visit the sub-columns of a super column in a set of rows as they are read from the response.
+     * @param rowKeys                         The keys of the rows
+     * @param columnFamily                    The name of the column family containing the super columns
+     * @param superColName                    The name of the super column
+     * @param colPredicate                    The sub-column selector predicate
+     * @param visitor                         Receives the rows and columns
+     * @param cLevel                          The Cassandra consistency level with which to perform the operation
+     * @throws Exception if an error occurs
+     * @see #visitColumnsFromRows(KeyRange, String, SlicePredicate, SliceVisitor, ConsistencyLevel)
+     */
+    public void visitSubColumnsFromRows(List<Bytes> rowKeys, String columnFamily, Bytes superColName, SlicePredicate colPredicate, SliceVisitor visitor, ConsistencyLevel cLevel) throws Exception {
+        visitColumnsFromRows(rowKeys, newColumnParent(columnFamily, superColName), colPredicate, visitor, cLevel);
+    }
+
+    private void visitColumnsFromRows(final KeyRange keyRange, final ColumnParent colParent, final SlicePredicate colPredicate, final SliceVisitor visitor, final ConsistencyLevel cLevel) throws Exception {
+        IOperation operation = new IOperation() {
+            @Override
+            public Object execute(Connection conn) throws Exception {
+                Cassandra.Client client = conn.getAPI();
+                client.send_get_range_slices(colParent, colPredicate, keyRange, cLevel);
+                SliceStreamReader reader = new SliceStreamReader(client.getInputProtocol(), decompressing(colParent.getColumn_family(), visitor));
+                try {
+                    reader.readRangeSlicesResponse();
+                } catch (Exception e) {
+                    throw reader.toOperationException(e);
+                }
+                return null;
+            }
+        };
+        tryOperation(operation);
+    }
+
+    private void visitColumnsFromRows(final List<Bytes> rowKeys, final ColumnParent colParent, final SlicePredicate colPredicate, final SliceVisitor visitor, final ConsistencyLevel cLevel) throws Exception {
+        IOperation operation = new IOperation() {
+            @Override
+            public Object execute(Connection conn) throws Exception {
+                Cassandra.Client client = conn.getAPI();
+                client.send_multiget_slice(Bytes.transform(rowKeys), colParent, colPredicate, cLevel);
+                SliceStreamReader reader = new SliceStreamReader(client.getInputProtocol(), decompressing(colParent.getColumn_family(), visitor));
+                try {
+                    reader.readMultigetSliceResponse();
+                } catch (Exception e) {
+                    throw reader.toOperationException(e);
+                }
+                return null;
+            }
+        };
+        tryOperation(operation);
+    }
+
     @SuppressWarnings("unchecked")
     private Map<Bytes, List<Column>> getColumnsFromRows(final KeyRange keyRange, final ColumnParent colParent, final SlicePredicate colPredicate, final ConsistencyLevel cLevel) throws Exception {
         IOperation operation = new IOperation() {
             @Override
             public Object execute(Connection conn) throws Exception {
                 List<KeySlice> apiResult = conn.getAPI().get_range_slices(colParent, colPredicate, keyRange, cLevel);
-                Map<Bytes, List<Column>> result = new LinkedHashMap<Bytes, List<Column>>();
-                for (KeySlice ks : apiResult) {
-                    List<ColumnOrSuperColumn> coscList = ks.columns;
-                    List<Column> colList = new ArrayList<Column>(coscList.size());
-                    for (ColumnOrSuperColumn cosc : coscList)
-                        colList.add(cosc.column);
-                    result.put(fromBytes(ks.key), colList);
-                }
-                return result;
+                decompressRows(colParent.getColumn_family(), apiResult);
+                return ResultViews.rows(apiResult, ResultViews.COLUMN);
             }
         };
         return (Map<Bytes, List<Column>>) tryOperation(operation);
@@ -661,6 +1036,34 @@ public class Selector extends Operand {
         return newColumnsPredicate(fromUTF8(startName), fromUTF8(finishName), reversed, maxColCount);
     }
 
+    /**
+     * Create a new <code>SlicePredicate</code> instance that selects the columns whose composite names start with the
+     * components of a prefix.
+     * @param prefix                          The prefix of the composite names to select in the slice
+     * @param reversed                        Whether the results should be returned in reverse order
+     * @param maxColCount                     The maximum number of columns to return
+     * @return                                The new <code>SlicePredicate</code>
+     */
+    public static SlicePredicate newColumnsPredicate(CompositeName prefix, boolean reversed, int maxColCount) {
+        return newColumnsPredicate(prefix, prefix, reversed, maxColCount);
+    }
+
+    /**
+     * Create a new <code>SlicePredicate</code> instance that selects the columns whose composite names lie between two
+     * composite names, including the names that extend either of them with more components.
+     * @param startName                       The inclusive composite name at which the slice starts
+     * @param finishName                      The inclusive composite name at which the slice finishes
+     * @param reversed                        Whether the results should be returned in reverse order, in which case
+     *                                        the start name should be the greater
+     * @param maxColCount                     The maximum number of columns to return
+     * @return                                The new <code>SlicePredicate</code>
+     */
+    public static SlicePredicate newColumnsPredicate(CompositeName startName, CompositeName finishName, boolean reversed, int maxColCount) {
+        if (reversed)
+            return newColumnsPredicate(startName.toPrefixEnd(), finishName.toBytes(), true, maxColCount);
+        return newColumnsPredicate(startName.toBytes(), finishName.toPrefixEnd(), false, maxColCount);
+    }
+
     /**
      * Create a new <code>SlicePredicate</code> instance.
      * @param colNames                        The specific columns names to select in the slice
@@ -745,6 +1148,8 @@ public class Selector extends Operand {
      * @return                                Whether the super column is present
      */
     public static boolean superColumnExists(List<SuperColumn> superColumns, Bytes superColName) {
+        if (superColumns instanceof SuperColumnIndex)
+            return ((SuperColumnIndex) superColumns).getSuperColumn(superColName) != null;
         for (SuperColumn superColumn : superColumns)
             if (Arrays.equals(superColumn.name, nullSafeGet(superColName)))
                 return true;
@@ -759,9 +1164,15 @@ public class Selector extends Operand {
      * @throws ArrayIndexOutOfBoundsException    Thrown if the list does not contain a super column with the specified name
      */
     public static SuperColumn getSuperColumn(List<SuperColumn> superColumns, Bytes superColName) throws ArrayIndexOutOfBoundsException {
-        for (SuperColumn superColumn : superColumns)
-            if (Arrays.equals(superColumn.name, nullSafeGet(superColName)))
+        if (superColumns instanceof SuperColumnIndex) {
+            SuperColumn superColumn = ((SuperColumnIndex) superColumns).getSuperColumn(superColName);
+            if (superColumn != null)
                 return superColumn;
+        } else {
+            for (SuperColumn superColumn : superColumns)
+                if (Arrays.equals(superColumn.name, nullSafeGet(superColName)))
+                    return superColumn;
+        }
         throw new ArrayIndexOutOfBoundsException();
     }
 
@@ -785,7 +1196,8 @@ public class Selector extends Operand {
      * @throws UnsupportedEncodingException    Thrown if the column value was not a string
      */
     public static String getColumnValue(List<Column> columns, String colName, String defaultValue) throws UnsupportedEncodingException {
-        return getColumnValue(columns, fromUTF8(colName), defaultValue);
+        Column column = findColumn(columns, colName);
+        return column != null ? StringHelper.toUTF8(column.value) : defaultValue;
     }
 
     /**
@@ -796,7 +1208,8 @@ public class Selector extends Operand {
      * @return                                The column value
      */
     public static Bytes getColumnValue(List<Column> columns, String colName, Bytes defaultValue) {
-        return getColumnValue(columns, fromUTF8(colName), defaultValue);
+        Column column = findColumn(columns, colName);
+        return column != null ? fromBytes(column.value) : defaultValue;
     }
 
     /**
@@ -807,6 +1220,8 @@ public class Selector extends Operand {
      * @return                                The column value
      */
     public static Bytes getColumnValue(List<Column> columns, Bytes colName, Bytes defaultValue) {
+        if (columns instanceof ColumnIndex)
+            return ((ColumnIndex) columns).getValue(colName, defaultValue);
         for (Column column : columns)
             if (Arrays.equals(column.name, nullSafeGet(colName)))
                 return fromBytes(column.value);
@@ -822,9 +1237,11 @@ public class Selector extends Operand {
      * @throws UnsupportedEncodingException    Thrown if the column value was not a string
      */
     public static String getColumnValue(List<Column> columns, Bytes colName, String defaultValue) throws UnsupportedEncodingException {
+        if (columns instanceof ColumnIndex)
+            return ((ColumnIndex) columns).getStringValue(colName, defaultValue);
         for (Column column : columns)
             if (Arrays.equals(column.name, nullSafeGet(colName)))
-                return fromBytes(column.value).toUTF8();
+                return StringHelper.toUTF8(column.value);
         return defaultValue;
     }
 
@@ -835,6 +1252,8 @@ public class Selector extends Operand {
      * @return                                Whether the column is present
      */
     public static boolean columnExists(List<Column> columns, Bytes colName) {
+        if (columns instanceof ColumnIndex)
+            return ((ColumnIndex) columns).containsColumn(colName);
         for (Column column : columns)
             if (Arrays.equals(column.name, nullSafeGet(colName)))
                 return true;
@@ -848,7 +1267,7 @@ public class Selector extends Operand {
      * @return                                Whether the column is present
      */
     public static boolean columnExists(List<Column> columns, String colName) {
-        return columnExists(columns, fromUTF8(colName));
+        return findColumn(columns, colName) != null;
     }
 
     /**
@@ -859,9 +1278,9 @@ public class Selector extends Operand {
      * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
      */
     public static Bytes getColumnValue(List<Column> columns, Bytes colName) throws ArrayIndexOutOfBoundsException {
-        for (Column column : columns)
-            if (Arrays.equals(column.name, nullSafeGet(colName)))
-                return fromBytes(column.value);
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return fromBytes(column.value);
         throw new ArrayIndexOutOfBoundsException();
     }
 
@@ -873,7 +1292,10 @@ public class Selector extends Operand {
      * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
      */
     public static Bytes getColumnValue(List<Column> columns, String colName) throws ArrayIndexOutOfBoundsException {
-        return getColumnValue(columns, fromUTF8(colName));
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return fromBytes(column.value);
+        throw new ArrayIndexOutOfBoundsException();
     }
 
     /**
@@ -885,7 +1307,10 @@ public class Selector extends Operand {
      * @throws UnsupportedEncodingException     Thrown if the column value did not contain a valid UTF-8 string
      */
     public static String getColumnStringValue(List<Column> columns, String colName) throws ArrayIndexOutOfBoundsException, UnsupportedEncodingException {
-        return getColumnStringValue(columns, fromUTF8(colName));
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return StringHelper.toUTF8(column.value);
+        throw new ArrayIndexOutOfBoundsException();
     }
 
     /**
@@ -897,9 +1322,205 @@ public class Selector extends Operand {
      * @throws UnsupportedEncodingException     Thrown if the column value did not contain a valid UTF-8 string
      */
     public static String getColumnStringValue(List<Column> columns, Bytes colName) throws ArrayIndexOutOfBoundsException, UnsupportedEncodingException {
-        for (Column column : columns)
-            if (Arrays.equals(column.name, nullSafeGet(colName)))
-                return fromBytes(column.value).toUTF8();
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return StringHelper.toUTF8(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from a big-endian long.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as a <code>long</code>
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static long getColumnLongValue(List<Column> columns, String colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toLong(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from a big-endian long.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as a <code>long</code>
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static long getColumnLongValue(List<Column> columns, Bytes colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toLong(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from a big-endian int.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as an <code>int</code>
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static int getColumnIntValue(List<Column> columns, String colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toInt(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from a big-endian int.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as an <code>int</code>
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static int getColumnIntValue(List<Column> columns, Bytes colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toInt(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from the 8 bytes of its IEEE 754 bits.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as a <code>double</code>
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static double getColumnDoubleValue(List<Column> columns, String colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toDouble(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from the 8 bytes of its IEEE 754 bits.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as a <code>double</code>
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static double getColumnDoubleValue(List<Column> columns, Bytes colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toDouble(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from the 4 bytes of its IEEE 754 bits.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as a <code>float</code>
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static float getColumnFloatValue(List<Column> columns, String colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toFloat(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from the 4 bytes of its IEEE 754 bits.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as a <code>float</code>
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static float getColumnFloatValue(List<Column> columns, Bytes colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toFloat(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from a single byte that is zero for <code>false</code>.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as a <code>boolean</code>
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static boolean getColumnBooleanValue(List<Column> columns, String colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toBoolean(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from a single byte that is zero for <code>false</code>.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as a <code>boolean</code>
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static boolean getColumnBooleanValue(List<Column> columns, Bytes colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toBoolean(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from 8 bytes for each element.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as an array of <code>long</code>s
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static long[] getColumnLongArrayValue(List<Column> columns, String colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toLongs(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from 8 bytes for each element.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as an array of <code>long</code>s
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static long[] getColumnLongArrayValue(List<Column> columns, Bytes colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toLongs(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from 8 bytes for each element.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as an array of <code>double</code>s
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static double[] getColumnDoubleArrayValue(List<Column> columns, String colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toDoubles(column.value);
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    /**
+     * Get the value of a column in a list of columns, decoded from 8 bytes for each element.
+     * @param columns                        The list of columns
+     * @param colName                        The name of the column from which to retrieve the value
+     * @return                               The column value as an array of <code>double</code>s
+     * @throws ArrayIndexOutOfBoundsException    Thrown if the specified column was not found
+     */
+    public static double[] getColumnDoubleArrayValue(List<Column> columns, Bytes colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return NumberHelper.toDoubles(column.value);
         throw new ArrayIndexOutOfBoundsException();
     }
 
@@ -922,10 +1543,34 @@ public class Selector extends Operand {
      * @throws ArrayIndexOutOfBoundsException
      */
     public static Clock getColumnClock(List<Column> columns, Bytes colName) throws ArrayIndexOutOfBoundsException {
+        Column column = findColumn(columns, colName);
+        if (column != null)
+            return column.getClock();
+        throw new ArrayIndexOutOfBoundsException();
+    }
+
+    private static Column findColumn(List<Column> columns, Bytes colName) {
+        if (columns instanceof ColumnIndex)
+            return ((ColumnIndex) columns).getColumn(colName);
         for (Column column : columns)
             if (Arrays.equals(column.name, nullSafeGet(colName)))
-                return column.getClock();
-        throw new ArrayIndexOutOfBoundsException();
+                return column;
+        return null;
+    }
+
+    /**
+     * Find a column by a name given as a string, which is compared with the names of the columns without being
+     * encoded, unless the list is indexed.
+     */
+    private static Column findColumn(List<Column> columns, String colName) {
+        if (colName == null)
+            return null;
+        if (columns instanceof ColumnIndex)
+            return ((ColumnIndex) columns).getColumn(colName);
+        for (Column column : columns)
+            if (StringHelper.equalsUTF8(column.name, colName))
+                return column;
+        return null;
     }
 
     /**
@@ -964,6 +1609,16 @@ public class Selector extends Operand {
         return fromUTF8(sb.toString());
     }
 
+    /**
+     * Return the minimum column name greater than a composite name, which is also less than any composite name that
+     * extends it. Names are assumed to be ordered by <code>BytesType</code>.
+     * @param colName                        The composite column name
+     * @return                               The bumped up column name
+     */
+    public static Bytes bumpUpColumnName(CompositeName colName) {
+        return colName.toSuccessor();
+    }
+
     /**
      * Return a bumped up copy of the column name that it is the minimum value greater than the specified value.
      * <code>null</code> is returned if no such value exists.
@@ -1114,6 +1769,78 @@ public class Selector extends Operand {
      */
     protected Selector(ThriftPool thrift) {
         super(thrift);
+        coalesceReads = thrift.getGeneralPolicy().isCoalesceReads();
+    }
+
+    /**
+     * Perform a read operation, or if coalescing is enabled, share the result of an identical read already in flight.
+     */
+    @SuppressWarnings("unchecked")
+    private Object tryCoalescedOperation(byte kind, Bytes rowKey, ColumnParent colParent, SlicePredicate predicate, ConsistencyLevel cLevel, final IOperation operation) throws Exception {
+        if (!coalesceReads)
+            return tryOperation(operation);
+        Bytes key = ReadCoalescer.newKey(kind, rowKey, colParent, predicate, cLevel);
+        Object result = thrift.getReadCoalescer().execute(key, new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return tryOperation(operation);
+            }
+        });
+        // Thrift objects are mutable, and the result is shared by every reader of the flight, the leader included
+        return RowCache.copy(result);
+    }
+
+    /**
+     * Decompress the values of the columns read from a column family, if its values are compressed. Results are
+     * decompressed in place as they are received, so that they are decompressed once however many readers share them.
+     */
+    private void decompress(String columnFamily, ColumnOrSuperColumn cosc) {
+        ValueCompressor compressor = thrift.getGeneralPolicy().getValueCompressor(columnFamily);
+        if (compressor != null)
+            compressor.decompress(cosc);
+    }
+
+    private void decompress(String columnFamily, List<ColumnOrSuperColumn> coscList) {
+        ValueCompressor compressor = thrift.getGeneralPolicy().getValueCompressor(columnFamily);
+        if (compressor != null)
+            compressor.decompress(coscList);
+    }
+
+    private void decompressRows(String columnFamily, Map<byte[], List<ColumnOrSuperColumn>> rows) {
+        ValueCompressor compressor = thrift.getGeneralPolicy().getValueCompressor(columnFamily);
+        if (compressor != null)
+            compressor.decompressRows(rows);
+    }
+
+    private void decompressRows(String columnFamily, List<KeySlice> rows) {
+        ValueCompressor compressor = thrift.getGeneralPolicy().getValueCompressor(columnFamily);
+        if (compressor != null)
+            compressor.decompressRows(rows);
+    }
+
+    private SliceVisitor decompressing(String columnFamily, SliceVisitor visitor) {
+        ValueCompressor compressor = thrift.getGeneralPolicy().getValueCompressor(columnFamily);
+        return compressor != null ? compressor.decompressing(visitor) : visitor;
+    }
+
+    private static boolean isSliceOfAll(SlicePredicate predicate) {
+        SliceRange range = predicate.getSlice_range();
+        return range != null && range.getCount() > 0 &&
+                (range.getStart() == null || range.getStart().length == 0) &&
+                (range.getFinish() == null || range.getFinish().length == 0);
+    }
+
+    private static SlicePredicate newPagePredicate(Bytes startBeyondName, OrderType orderType, boolean reversed, int count) {
+        if (startBeyondName == null)
+            return newColumnsPredicateAll(reversed, count);
+
+        Bytes startName;
+        if (reversed)
+            startName = bumpDownColumnName(startBeyondName, orderType);
+        else
+            startName = bumpUpColumnName(startBeyondName, orderType);
+
+        return newColumnsPredicate(startName, Bytes.EMPTY, reversed, count);
     }
 
     private static ColumnParent newColumnParent(String columnFamily, String superColName) {
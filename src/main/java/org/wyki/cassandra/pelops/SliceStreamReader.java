@@ -0,0 +1,202 @@
+package org.wyki.cassandra.pelops;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.InvalidRequestException;
+import org.apache.cassandra.thrift.NotFoundException;
+import org.apache.cassandra.thrift.SuperColumn;
+import org.apache.cassandra.thrift.TimedOutException;
+import org.apache.cassandra.thrift.UnavailableException;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Decodes the response to a <code>get_range_slices</code> or <code>multiget_slice</code> call incrementally, passing each
+ * row and column to a visitor as soon as it has been read from the connection. The response is read from the input
+ * protocol of the connection's client after the request has been sent using the client's <code>send_</code> method,
+ * in place of the client's <code>recv_</code> method.
+ * <p>The decoding follows the structure of the Cassandra Thrift interface: the result struct holds the success value in
+ * field 0 and the declared exceptions in fields 1 to 3, a <code>KeySlice</code> holds its key in field 1 and its columns
+ * in field 2, and a <code>ColumnOrSuperColumn</code> holds a column in field 1 or a super column in field 2.
+ */
+class SliceStreamReader {
+    private final TProtocol iprot;
+    private final SliceVisitor visitor;
+    private int rowsVisited;
+    private boolean complete;
+
+    SliceStreamReader(TProtocol iprot, SliceVisitor visitor) {
+        this.iprot = iprot;
+        this.visitor = visitor;
+    }
+
+    /**
+     * Get the number of rows passed to the visitor so far, including a row whose columns are being visited.
+     */
+    int getRowsVisited() {
+        return rowsVisited;
+    }
+
+    /**
+     * Translate an exception raised while reading a response into the exception the operation should throw. Once rows
+     * have been passed to the visitor the read must not be retried, and once the response has been abandoned part way
+     * through the connection must not be reused, so exceptions that would cause either are wrapped.
+     */
+    Exception toOperationException(Exception e) {
+        if (complete || (rowsVisited == 0 && e instanceof TTransportException))
+            return e;
+        if (e instanceof TTransportException || e instanceof TimedOutException || e instanceof UnavailableException
+                || e instanceof NotFoundException || e instanceof InvalidRequestException || e instanceof TApplicationException)
+            return new TException("Streamed read failed after visiting " + rowsVisited + " rows", e);
+        return e;
+    }
+
+    /**
+     * Read the response to <code>get_range_slices</code>, which is a list of key slices.
+     */
+    void readRangeSlicesResponse() throws Exception {
+        readResponse(false);
+    }
+
+    /**
+     * Read the response to <code>multiget_slice</code>, which is a map from keys to lists of columns.
+     */
+    void readMultigetSliceResponse() throws Exception {
+        readResponse(true);
+    }
+
+    private void readResponse(boolean multiget) throws Exception {
+        TMessage msg = iprot.readMessageBegin();
+        if (msg.type == TMessageType.EXCEPTION) {
+            TApplicationException x = TApplicationException.read(iprot);
+            iprot.readMessageEnd();
+            complete = true;
+            throw x;
+        }
+        boolean success = false;
+        Exception declared = null;
+        iprot.readStructBegin();
+        while (true) {
+            TField field = iprot.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+            if (field.id == 0 && field.type == (multiget ? TType.MAP : TType.LIST)) {
+                if (multiget)
+                    readRowMap();
+                else
+                    readKeySliceList();
+                success = true;
+            } else if (field.type == TType.STRUCT && field.id >= 1 && field.id <= 3) {
+                declared = readDeclaredException(iprot, field.id);
+            } else {
+                TProtocolUtil.skip(iprot, field.type);
+            }
+            iprot.readFieldEnd();
+        }
+        iprot.readStructEnd();
+        iprot.readMessageEnd();
+        complete = true;
+        if (declared != null)
+            throw declared;
+        if (!success)
+            throw new TApplicationException(TApplicationException.MISSING_RESULT, msg.name + " failed: unknown result");
+    }
+
+    /**
+     * Read one of the exceptions declared by the Cassandra Thrift interface from field 1, 2 or 3 of a result struct.
+     */
+    static Exception readDeclaredException(TProtocol iprot, short fieldId) throws TException {
+        switch (fieldId) {
+            case 1:
+                InvalidRequestException ire = new InvalidRequestException();
+                ire.read(iprot);
+                return ire;
+            case 2:
+                UnavailableException ue = new UnavailableException();
+                ue.read(iprot);
+                return ue;
+            default:
+                TimedOutException te = new TimedOutException();
+                te.read(iprot);
+                return te;
+        }
+    }
+
+    private void readRowMap() throws Exception {
+        TMap map = iprot.readMapBegin();
+        for (int i = 0; i < map.size; i++) {
+            Bytes rowKey = new Bytes(iprot.readBinary());
+            readRow(rowKey);
+        }
+        iprot.readMapEnd();
+    }
+
+    private void readKeySliceList() throws Exception {
+        TList list = iprot.readListBegin();
+        for (int i = 0; i < list.size; i++)
+            readKeySlice();
+        iprot.readListEnd();
+    }
+
+    private void readKeySlice() throws Exception {
+        Bytes rowKey = null;
+        iprot.readStructBegin();
+        while (true) {
+            TField field = iprot.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+            if (field.id == 1 && field.type == TType.STRING) {
+                rowKey = new Bytes(iprot.readBinary());
+            } else if (field.id == 2 && field.type == TType.LIST) {
+                // Cassandra writes the fields of a struct in order, so the key always precedes the columns
+                if (rowKey == null)
+                    throw new TException("Key slice columns received before the key");
+                readRow(rowKey);
+            } else {
+                TProtocolUtil.skip(iprot, field.type);
+            }
+            iprot.readFieldEnd();
+        }
+        iprot.readStructEnd();
+    }
+
+    private void readRow(Bytes rowKey) throws Exception {
+        rowsVisited++;
+        visitor.beginRow(rowKey);
+        TList list = iprot.readListBegin();
+        for (int i = 0; i < list.size; i++)
+            readColumnOrSuperColumn(rowKey);
+        iprot.readListEnd();
+        visitor.endRow(rowKey);
+    }
+
+    private void readColumnOrSuperColumn(Bytes rowKey) throws Exception {
+        iprot.readStructBegin();
+        while (true) {
+            TField field = iprot.readFieldBegin();
+            if (field.type == TType.STOP)
+                break;
+            if (field.id == 1 && field.type == TType.STRUCT) {
+                Column column = new Column();
+                column.read(iprot);
+                visitor.visitColumn(rowKey, column);
+            } else if (field.id == 2 && field.type == TType.STRUCT) {
+                SuperColumn superColumn = new SuperColumn();
+                superColumn.read(iprot);
+                visitor.visitSuperColumn(rowKey, superColumn);
+            } else {
+                TProtocolUtil.skip(iprot, field.type);
+            }
+            iprot.readFieldEnd();
+        }
+        iprot.readStructEnd();
+    }
+}
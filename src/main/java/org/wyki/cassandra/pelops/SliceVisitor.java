@@ -0,0 +1,47 @@
+package org.wyki.cassandra.pelops;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.SuperColumn;
+
+/**
+ * Receives the rows and columns of a multi-row read as they are decoded from the response, so that a large result can
+ * be processed without being held in memory all at once, unless the pool uses framed transport, which buffers each
+ * whole response. Override the methods for the events of interest. See
+ * {@link Selector#visitColumnsFromRows(org.apache.cassandra.thrift.KeyRange, String, org.apache.cassandra.thrift.SlicePredicate, SliceVisitor, org.apache.cassandra.thrift.ConsistencyLevel)}.
+ * <p>An exception thrown by a visitor method abandons the rest of the response and is passed to the caller of the read.
+ */
+public abstract class SliceVisitor {
+    /**
+     * Called before the columns of a row are visited.
+     * @param rowKey                        The key of the row
+     * @throws Exception to abandon the read
+     */
+    public void beginRow(Bytes rowKey) throws Exception {
+    }
+
+    /**
+     * Called for each column of a row.
+     * @param rowKey                        The key of the row
+     * @param column                        The column
+     * @throws Exception to abandon the read
+     */
+    public void visitColumn(Bytes rowKey, Column column) throws Exception {
+    }
+
+    /**
+     * Called for each super column of a row.
+     * @param rowKey                        The key of the row
+     * @param superColumn                   The super column, including its sub-columns
+     * @throws Exception to abandon the read
+     */
+    public void visitSuperColumn(Bytes rowKey, SuperColumn superColumn) throws Exception {
+    }
+
+    /**
+     * Called after all the columns of a row have been visited.
+     * @param rowKey                        The key of the row
+     * @throws Exception to abandon the read
+     */
+    public void endRow(Bytes rowKey) throws Exception {
+    }
+}
@@ -1,22 +1,100 @@
 package org.wyki.cassandra.pelops;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 
+/**
+ * Converts between strings and UTF-8 bytes. Keys and column names are almost always short ASCII strings, so each
+ * conversion first tries a fast path that handles ASCII directly, and only falls back to full UTF-8 encoding or decoding
+ * when it finds a character or byte outside that range. Strings can also be encoded into a caller's buffer, and decoded
+ * through an {@link InternCache} that returns the same <code>String</code> for repeated names.
+ */
 public class StringHelper {
-	
+
 	/**
 	 * Create an array of bytes that represents a <code>String</code> using UTF-8 encoding.
 	 * @param string						The <code>String</code> to convert
 	 * @return								The string as UTF-8 bytes
 	 */
 	public static byte[] toBytes(String string) {
-		try {
-			return string.getBytes("utf-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new IllegalStateException(e);
+		int length = string.length();
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (c >= 0x80) {
+				bytes = Arrays.copyOf(bytes, encodedLength(string));
+				encode(string, i, bytes, i);
+				return bytes;
+			}
+			bytes[i] = (byte) c;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Get the number of bytes needed to encode a <code>String</code> as UTF-8.
+	 * @param string						The <code>String</code>
+	 * @return								The length of its UTF-8 encoding
+	 */
+	public static int encodedLength(String string) {
+		int length = string.length();
+		int encodedLength = length;
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (c < 0x80)
+				continue;
+			if (c < 0x800)
+				encodedLength += 1;
+			else if (!isSurrogate(c))
+				encodedLength += 2;
+			else if (isSurrogatePair(string, i)) {
+				// Four bytes for the two characters of the pair
+				encodedLength += 2;
+				i++;
+			}
+			// An unpaired surrogate is encoded as a single '?', as String.getBytes does
+		}
+		return encodedLength;
+	}
+
+	/**
+	 * Encode a <code>String</code> as UTF-8 into a buffer, which allows a buffer to be reused for many strings.
+	 * @param string						The <code>String</code> to encode
+	 * @param buffer						The buffer, which must have {@link #encodedLength(String)} bytes available
+	 * 										from the offset
+	 * @param offset						The offset at which to write the encoded string
+	 * @return								The number of bytes written
+	 */
+	public static int encode(String string, byte[] buffer, int offset) {
+		return encode(string, 0, buffer, offset) - offset;
+	}
+
+	private static int encode(String string, int start, byte[] buffer, int pos) {
+		int length = string.length();
+		for (int i = start; i < length; i++) {
+			char c = string.charAt(i);
+			if (c < 0x80) {
+				buffer[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[pos++] = (byte) (0xc0 | (c >> 6));
+				buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+			} else if (!isSurrogate(c)) {
+				buffer[pos++] = (byte) (0xe0 | (c >> 12));
+				buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+			} else if (isSurrogatePair(string, i)) {
+				int codePoint = Character.toCodePoint(c, string.charAt(++i));
+				buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+				buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else {
+				buffer[pos++] = '?';
+			}
 		}
+		return pos;
 	}
-	
+
 	/**
 	 * Create a <code>String</code> from an array of UTF-8 bytes
 	 * @param bytes							The array of UTF-8 bytes
@@ -25,10 +103,138 @@ public class StringHelper {
 	public static String toUTF8(byte[] bytes) {
 		if (bytes == null)
 			return null;
-        try {
-            return new String(bytes, "utf-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalStateException(e);
-        }
-    }
+		return toUTF8(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Create a <code>String</code> from part of an array of UTF-8 bytes
+	 * @param bytes							The array
+	 * @param offset						The offset of the UTF-8 bytes in the array
+	 * @param length						The number of UTF-8 bytes
+	 * @return								The <code>String</code> object
+	 */
+	@SuppressWarnings("deprecation")
+	public static String toUTF8(byte[] bytes, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if (bytes[i] < 0) {
+				try {
+					return new String(bytes, offset, length, "utf-8");
+				} catch (UnsupportedEncodingException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		// ASCII bytes are their own characters, and this constructor copies them without going through a decoder
+		return new String(bytes, 0, offset, length);
+	}
+
+	/**
+	 * Determines whether an array of bytes is the UTF-8 encoding of a <code>String</code>, without encoding the
+	 * <code>String</code> unless it contains characters outside the ASCII range.
+	 * @param bytes							The array of bytes
+	 * @param string						The <code>String</code>
+	 * @return								Whether the bytes encode the string
+	 */
+	public static boolean equalsUTF8(byte[] bytes, String string) {
+		int length = string.length();
+		// Every character is encoded as at least one byte
+		if (bytes.length < length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (c >= 0x80)
+				return Arrays.equals(bytes, toBytes(string));
+			if (bytes[i] != c)
+				return false;
+		}
+		return bytes.length == length;
+	}
+
+	private static boolean isSurrogate(char c) {
+		return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+	}
+
+	private static boolean isSurrogatePair(String string, int index) {
+		return Character.isHighSurrogate(string.charAt(index)) && index + 1 < string.length() && Character.isLowSurrogate(string.charAt(index + 1));
+	}
+
+	/**
+	 * A small cache that decodes repeated UTF-8 byte sequences, such as the names of the columns in a column family,
+	 * to the same <code>String</code> each time, rather than allocating a new one. Each sequence is mapped to a single
+	 * slot by its hash, and replaces whatever the slot held before, so the cache never grows and needs no locking.
+	 * Sequences longer than the maximum length are decoded without being cached. A cache may be shared by threads.
+	 */
+	public static class InternCache {
+		private final Entry[] entries;
+		private final int maxLength;
+
+		/**
+		 * Create a cache.
+		 * @param capacity						The number of slots, which is rounded up to a power of two
+		 * @param maxLength						The maximum number of bytes in a cached sequence
+		 */
+		public InternCache(int capacity, int maxLength) {
+			if (capacity < 1 || capacity > 1 << 30)
+				throw new IllegalArgumentException("Capacity " + capacity + " is out of range");
+			int size = 1;
+			while (size < capacity)
+				size <<= 1;
+			entries = new Entry[size];
+			this.maxLength = maxLength;
+		}
+
+		/**
+		 * Create a <code>String</code> from an array of UTF-8 bytes, using the cache.
+		 * @param bytes							The array of UTF-8 bytes
+		 * @return								The <code>String</code> object
+		 */
+		public String toUTF8(byte[] bytes) {
+			if (bytes == null)
+				return null;
+			return toUTF8(bytes, 0, bytes.length);
+		}
+
+		/**
+		 * Create a <code>String</code> from part of an array of UTF-8 bytes, using the cache.
+		 * @param bytes							The array
+		 * @param offset						The offset of the UTF-8 bytes in the array
+		 * @param length						The number of UTF-8 bytes
+		 * @return								The <code>String</code> object
+		 */
+		public String toUTF8(byte[] bytes, int offset, int length) {
+			if (length > maxLength)
+				return StringHelper.toUTF8(bytes, offset, length);
+			int hash = 1;
+			for (int i = offset; i < offset + length; i++)
+				hash = 31 * hash + bytes[i];
+			int index = (hash ^ (hash >>> 16)) & (entries.length - 1);
+			Entry entry = entries[index];
+			if (entry != null && entry.hash == hash && entry.matches(bytes, offset, length))
+				return entry.string;
+			String string = StringHelper.toUTF8(bytes, offset, length);
+			entries[index] = new Entry(hash, Arrays.copyOfRange(bytes, offset, offset + length), string);
+			return string;
+		}
+
+		private static class Entry {
+			final int hash;
+			final byte[] bytes;
+			final String string;
+
+			Entry(int hash, byte[] bytes, String string) {
+				this.hash = hash;
+				this.bytes = bytes;
+				this.string = string;
+			}
+
+			boolean matches(byte[] other, int offset, int length) {
+				if (bytes.length != length)
+					return false;
+				for (int i = 0; i < length; i++)
+					if (bytes[i] != other[offset + i])
+						return false;
+				return true;
+			}
+		}
+	}
 }
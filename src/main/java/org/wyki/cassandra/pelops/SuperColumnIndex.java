@@ -0,0 +1,94 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.cassandra.thrift.SuperColumn;
+
+import static org.wyki.cassandra.pelops.Bytes.fromBytes;
+import static org.wyki.cassandra.pelops.Bytes.fromUTF8;
+
+/**
+ * A read-only view of a list of super columns that supports looking up super columns by name in constant time. The
+ * index is built the first time a super column is looked up.
+ * <p>A <code>SuperColumnIndex</code> is itself a list of super columns, so it can be passed to the static helpers of
+ * <code>Selector</code>, which use the index rather than scanning the list.
+ * @see ColumnIndex
+ */
+public class SuperColumnIndex extends AbstractList<SuperColumn> implements RandomAccess {
+    private final List<SuperColumn> superColumns;
+    private volatile HashMap<Bytes, SuperColumn> byName;
+
+    /**
+     * Create an index over a list of super columns. The list must not be modified after the index has been created.
+     * @param superColumns                  The list of super columns
+     */
+    public SuperColumnIndex(List<SuperColumn> superColumns) {
+        this.superColumns = superColumns;
+    }
+
+    /**
+     * Get an index over a list of super columns, reusing the list itself if it is already an index.
+     * @param superColumns                  The list of super columns
+     * @return                              The index
+     */
+    public static SuperColumnIndex of(List<SuperColumn> superColumns) {
+        return superColumns instanceof SuperColumnIndex ? (SuperColumnIndex) superColumns : new SuperColumnIndex(superColumns);
+    }
+
+    @Override
+    public SuperColumn get(int index) {
+        return superColumns.get(index);
+    }
+
+    @Override
+    public int size() {
+        return superColumns.size();
+    }
+
+    /**
+     * Get a super column by name.
+     * @param superColName                  The name of the super column
+     * @return                              The super column, or <code>null</code> if it is not present
+     */
+    public SuperColumn getSuperColumn(Bytes superColName) {
+        if (superColName == null)
+            return null;
+        return index().get(superColName);
+    }
+
+    /**
+     * Get a super column by name.
+     * @param superColName                  The name of the super column
+     * @return                              The super column, or <code>null</code> if it is not present
+     */
+    public SuperColumn getSuperColumn(String superColName) {
+        return getSuperColumn(fromUTF8(superColName));
+    }
+
+    /**
+     * Get an index over the sub-columns of a super column.
+     * @param superColName                  The name of the super column
+     * @return                              The index, or <code>null</code> if the super column is not present
+     */
+    public ColumnIndex getSubColumns(Bytes superColName) {
+        SuperColumn superColumn = getSuperColumn(superColName);
+        return superColumn != null ? ColumnIndex.of(superColumn.columns) : null;
+    }
+
+    private HashMap<Bytes, SuperColumn> index() {
+        HashMap<Bytes, SuperColumn> map = byName;
+        if (map == null) {
+            map = new HashMap<Bytes, SuperColumn>(superColumns.size() * 4 / 3 + 1);
+            for (SuperColumn superColumn : superColumns) {
+                Bytes name = fromBytes(superColumn.name);
+                if (name != null && !map.containsKey(name))
+                    map.put(name, superColumn);
+            }
+            byName = map;
+        }
+        return map;
+    }
+}
@@ -17,7 +17,7 @@ public interface ThriftPool {
 
     /**
      * Create a {@link Mutator mutator} object using the current time as the operation time stamp.
-     * The {@link Mutator mutator} object must only be used to execute 1 mutation operation.
+     * The {@link Mutator mutator} object must only be used to execute 1 mutation operation, unless it is reset.
      *
      * @return A new {@link Mutator mutator} object
      */
@@ -25,7 +25,7 @@ public interface ThriftPool {
 
     /**
      * Create a {@link Mutator mutator} object with an arbitrary time stamp. The {@link Mutator mutator} object
-     * must only be used to execute 1 mutation operation.
+     * must only be used to execute 1 mutation operation, unless it is reset.
      *
      * @param timestamp The default time stamp to use for operations
      * @return A new {@link Mutator mutator} object
@@ -87,6 +87,15 @@ public interface ThriftPool {
      */
     Connection getConnectionExcept(String notNode) throws Exception;
 
+    /**
+     * Get a connection to a particular node, if one is readily available.
+     *
+     * @param node the node to connect to, as it is named in the pool
+     * @return the connection, or <code>null</code> if the pool has no connection to the node available
+     * @throws Exception if an error occurs
+     */
+    Connection getConnectionTo(String node) throws Exception;
+
     /**
      * Shuts down the pool.
      * <p/>
@@ -108,6 +117,57 @@ public interface ThriftPool {
      */
     GeneralPolicy getGeneralPolicy();
 
+    /**
+     * Get the client-side cache of row data shared by the operands created from this pool.
+     *
+     * @return the cache, or <code>null</code> if caching is disabled
+     */
+    RowCache getRowCache();
+
+    /**
+     * Set the client-side cache of row data shared by the operands created from this pool.
+     *
+     * @param rowCache the cache, or <code>null</code> to disable caching
+     */
+    void setRowCache(RowCache rowCache);
+
+    /**
+     * Get the client-side cache of missing columns and rows shared by the operands created from this pool.
+     *
+     * @return the cache, or <code>null</code> if negative caching is disabled
+     */
+    NegativeCache getNegativeCache();
+
+    /**
+     * Set the client-side cache of missing columns and rows shared by the operands created from this pool.
+     *
+     * @param negativeCache the cache, or <code>null</code> to disable negative caching
+     */
+    void setNegativeCache(NegativeCache negativeCache);
+
+    /**
+     * Get the journal to which mutators created from this pool append batches that cannot be written because the
+     * cluster cannot be reached.
+     *
+     * @return the journal, or <code>null</code> if journaling is disabled
+     */
+    WriteJournal getWriteJournal();
+
+    /**
+     * Set the journal to which mutators created from this pool append batches that cannot be written because the
+     * cluster cannot be reached.
+     *
+     * @param writeJournal the journal, or <code>null</code> to disable journaling
+     */
+    void setWriteJournal(WriteJournal writeJournal);
+
+    /**
+     * Get the coalescer of identical in-flight reads shared by the selectors created from this pool.
+     *
+     * @return the coalescer
+     */
+    ReadCoalescer getReadCoalescer();
+
     /**
      * Create a <code>KeyDeletor</code> object with an arbitrary time stamp.
      *
@@ -118,7 +178,7 @@ public interface ThriftPool {
 
     /**
      * Create a <code>Mutator</code> object with an arbitrary time stamp. The <code>Mutator</code> object
-     * must only be used to execute 1 mutation operation.
+     * must only be used to execute 1 mutation operation, unless it is reset.
      *
      * @param clock The default clock instance to use for operations
      * @return A new <code>Mutator</code> object
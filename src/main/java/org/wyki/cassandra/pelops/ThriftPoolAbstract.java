@@ -6,6 +6,11 @@ import org.apache.cassandra.thrift.Clock;
  * Abstract impl of {@link org.wyki.cassandra.pelops.ThriftPool}.
  */
 public abstract class ThriftPoolAbstract implements ThriftPool {
+    private volatile RowCache rowCache;
+    private volatile NegativeCache negativeCache;
+    private volatile WriteJournal writeJournal;
+    private final ReadCoalescer readCoalescer = new ReadCoalescer();
+
     /**
      * Create a <code>Selector</code> object.
      *
@@ -19,7 +24,7 @@ public abstract class ThriftPoolAbstract implements ThriftPool {
 
     /**
      * Create a <code>Mutator</code> object using the current time as the operation time stamp. The <code>Mutator</code> object
-     * must only be used to execute 1 mutation operation.
+     * must only be used to execute 1 mutation operation, unless it is reset.
      *
      * @return A new <code>Mutator</code> object
      */
@@ -31,7 +36,7 @@ public abstract class ThriftPoolAbstract implements ThriftPool {
 
     /**
      * Create a <code>Mutator</code> object with an arbitrary time stamp. The <code>Mutator</code> object
-     * must only be used to execute 1 mutation operation.
+     * must only be used to execute 1 mutation operation, unless it is reset.
      *
      * @param timestamp The default time stamp to use for operations
      * @return A new <code>Mutator</code> object
@@ -44,7 +49,7 @@ public abstract class ThriftPoolAbstract implements ThriftPool {
 
     /**
      * Create a <code>Mutator</code> object with an arbitrary time stamp. The <code>Mutator</code> object
-     * must only be used to execute 1 mutation operation.
+     * must only be used to execute 1 mutation operation, unless it is reset.
      *
      * @param clock The default clock instance to use for operations
      * @return A new <code>Mutator</code> object
@@ -111,6 +116,41 @@ public abstract class ThriftPoolAbstract implements ThriftPool {
         return new KeyspaceManagement(this);
     }
 
+    @Override
+    public RowCache getRowCache() {
+        return rowCache;
+    }
+
+    @Override
+    public void setRowCache(RowCache rowCache) {
+        this.rowCache = rowCache;
+    }
+
+    @Override
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    @Override
+    public void setNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
+    @Override
+    public WriteJournal getWriteJournal() {
+        return writeJournal;
+    }
+
+    @Override
+    public void setWriteJournal(WriteJournal writeJournal) {
+        this.writeJournal = writeJournal;
+    }
+
+    @Override
+    public ReadCoalescer getReadCoalescer() {
+        return readCoalescer;
+    }
+
     private void validateKeyspaceSet() throws IllegalStateException {
         if (getKeyspace() == null && getKeyspace().isEmpty()) {
             throw new IllegalStateException("A keyspace must be provided in order to use this function.");
@@ -49,6 +49,12 @@ public class ThriftPoolBasic extends ThriftPoolAbstract {
         return getConnection();
     }
 
+    @Override
+    public Connection getConnectionTo(String node) throws Exception {
+        BasicConnection connection = new BasicConnection(node, port, keyspace);
+        return connection.open(-1) ? connection : null;
+    }
+
     @Override
     public void shutdown() {
         // do nothing
@@ -149,13 +149,28 @@ public class ThriftPoolComplex extends ThriftPoolAbstract {
 			totalTimeWaiting += retryPause;
 			if (totalTimeWaiting > poolPolicy.getMaxGetConnectionRetryWait()) {
 				logger.error("Failed to return a Cassandra connection. If another back off then max waiting time exceeded {} > {}", totalTimeWaiting, poolPolicy.getMaxGetConnectionRetryWait());
-				throw new Exception("No Cassandra nodes are available");
+				throw new NoConnectionException("No Cassandra nodes are available");
 			}
 			// Sleep awhile
 			Thread.sleep(retryPause);
 		}
 	}
 
+	/**
+	 * Get a Cassandra connection to a particular node represented in the connection pool, if one is available.
+	 * @param node					The node to connect to
+	 * @return						A connection to the node, or <code>null</code> if the node is not in the pool or has no
+	 * 								connections available
+	 * @throws Exception
+	 */
+	@Override
+	public Connection getConnectionTo(String node) throws Exception {
+		NodeContext nodeContext = pool.get(node);
+		if (nodeContext == null || !nodeContext.isAvailable())
+			return null;
+		return nodeContext.getConnection();
+	}
+
 	/**
 	 * Cleanly shutdown this pool and associated Thrift connections and operations.
 	 * TODO wait until all in-use connections are returned to the pool before exiting.
@@ -0,0 +1,201 @@
+package org.wyki.cassandra.pelops;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.cassandra.thrift.TokenRange;
+
+/**
+ * A snapshot of the token ring of a keyspace, which maps row keys to the nodes that hold replicas of them. The ring is
+ * built from the ranges returned by {@link Metrics#getKeyspaceRingMappings(String)}, and row keys are mapped to tokens
+ * in the same way as the cluster's partitioner. The <code>RandomPartitioner</code>, <code>OrderPreservingPartitioner</code>
+ * and <code>ByteOrderedPartitioner</code> are supported.
+ * <p>A ring does not change once it has been created. It should be reloaded periodically, and whenever the cluster's
+ * topology changes, since a stale ring only causes mutations to be sent to a node that is no longer a replica.
+ */
+public class TokenRing {
+    private final TokenFactory tokenFactory;
+    private final Comparable<Object>[] endTokens;
+    private final List<List<String>> endpoints;
+
+    /**
+     * Create a ring.
+     * @param partitioner                   The class name of the cluster's partitioner
+     * @param ranges                        The token ranges of the keyspace and their endpoints
+     */
+    @SuppressWarnings("unchecked")
+    public TokenRing(String partitioner, List<TokenRange> ranges) {
+        tokenFactory = newTokenFactory(partitioner);
+        List<TokenRange> sorted = new ArrayList<TokenRange>(ranges);
+        final List<Comparable<Object>> tokens = new ArrayList<Comparable<Object>>(sorted.size());
+        Collections.sort(sorted, new Comparator<TokenRange>() {
+            @Override
+            public int compare(TokenRange a, TokenRange b) {
+                return tokenFactory.fromString(a.getEnd_token()).compareTo(tokenFactory.fromString(b.getEnd_token()));
+            }
+        });
+        endpoints = new ArrayList<List<String>>(sorted.size());
+        for (TokenRange range : sorted) {
+            tokens.add(tokenFactory.fromString(range.getEnd_token()));
+            endpoints.add(Collections.unmodifiableList(new ArrayList<String>(range.getEndpoints())));
+        }
+        endTokens = tokens.toArray(new Comparable[tokens.size()]);
+    }
+
+    /**
+     * Load the ring of the keyspace used by a pool.
+     * @param thrift                        The pool
+     * @return                              The ring
+     * @throws Exception if an error occurs
+     */
+    public static TokenRing load(ThriftPool thrift) throws Exception {
+        Metrics metrics = thrift.createMetrics();
+        return new TokenRing(metrics.getPartitioner(), metrics.getKeyspaceRingMappings(thrift.getKeyspace()));
+    }
+
+    /**
+     * Get the number of ranges in the ring.
+     * @return                              The range count
+     */
+    public int size() {
+        return endTokens.length;
+    }
+
+    /**
+     * Get the index of the range that contains a row key. Each range is owned by a single set of replicas.
+     * @param rowKey                        The row key
+     * @return                              The range index
+     */
+    public int getRangeIndex(Bytes rowKey) {
+        if (endTokens.length == 0)
+            throw new IllegalStateException("The ring is empty");
+        Comparable<Object> token = tokenFactory.fromKey(rowKey.getBytes());
+        // A range includes its end token, so find the first end token that is not less than the key's token
+        int low = 0;
+        int high = endTokens.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (endTokens[mid].compareTo(token) < 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        // Tokens beyond the last end token belong to the range that wraps around the ring
+        return low < endTokens.length ? low : 0;
+    }
+
+    /**
+     * Get the replicas of a range.
+     * @param rangeIndex                    The range index
+     * @return                              The endpoints holding replicas of the range
+     */
+    public List<String> getReplicas(int rangeIndex) {
+        return endpoints.get(rangeIndex);
+    }
+
+    /**
+     * Get the replicas of a row key.
+     * @param rowKey                        The row key
+     * @return                              The endpoints holding replicas of the row
+     */
+    public List<String> getReplicas(Bytes rowKey) {
+        return getReplicas(getRangeIndex(rowKey));
+    }
+
+    private static TokenFactory newTokenFactory(String partitioner) {
+        if (partitioner.endsWith(".RandomPartitioner"))
+            return new RandomTokenFactory();
+        if (partitioner.endsWith(".OrderPreservingPartitioner"))
+            return new StringTokenFactory();
+        if (partitioner.endsWith(".ByteOrderedPartitioner"))
+            return new BytesTokenFactory();
+        throw new IllegalArgumentException("Unsupported partitioner " + partitioner);
+    }
+
+    private abstract static class TokenFactory {
+        abstract Comparable<Object> fromString(String token);
+
+        abstract Comparable<Object> fromKey(byte[] key);
+    }
+
+    /**
+     * Tokens of the <code>RandomPartitioner</code> are the absolute value of the MD5 digest of the key.
+     */
+    private static class RandomTokenFactory extends TokenFactory {
+        private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() {
+                try {
+                    return MessageDigest.getInstance("MD5");
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Comparable<Object> fromString(String token) {
+            return (Comparable) new BigInteger(token);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Comparable<Object> fromKey(byte[] key) {
+            MessageDigest digest = digests.get();
+            digest.reset();
+            return (Comparable) new BigInteger(digest.digest(key)).abs();
+        }
+    }
+
+    /**
+     * Tokens of the <code>OrderPreservingPartitioner</code> are the key as a UTF-8 string.
+     */
+    private static class StringTokenFactory extends TokenFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        Comparable<Object> fromString(String token) {
+            return (Comparable) token;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Comparable<Object> fromKey(byte[] key) {
+            try {
+                return (Comparable) new String(key, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Tokens of the <code>ByteOrderedPartitioner</code> are the key as a hex string, which orders as the bytes do.
+     */
+    private static class BytesTokenFactory extends TokenFactory {
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Comparable<Object> fromString(String token) {
+            return (Comparable) token.toLowerCase();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Comparable<Object> fromKey(byte[] key) {
+            char[] chars = new char[key.length * 2];
+            for (int i = 0; i < key.length; i++) {
+                chars[i * 2] = HEX[(key[i] >> 4) & 0xf];
+                chars[i * 2 + 1] = HEX[key[i] & 0xf];
+            }
+            return (Comparable) new String(chars);
+        }
+    }
+}
@@ -1,13 +1,30 @@
 package org.wyki.cassandra.pelops;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates and converts time UUIDs. New time UUIDs are built directly from the current time, and from the clock
+ * sequence and node of the host, which are determined once. The time stamps of the UUIDs generated by a process always
+ * increase, even when several are generated in the same clock tick or the system clock is set back, without locking.
+ */
 public class UuidHelper {
+	/**
+	 * The number of 100 nanosecond intervals between the start of the Gregorian calendar, which is the epoch of time
+	 * UUIDs, and the Unix epoch.
+	 */
+	private static final long GREGORIAN_OFFSET = 0x01b21dd213814000L;
+	
+	private static final long CLOCK_SEQ_AND_NODE = new com.eaio.uuid.UUID().getClockSeqAndNode();
+	
+	private static final AtomicLong lastTimestamp = new AtomicLong();
+	
 	/**
 	 * Generate a new time UUID object
 	 * @return							A new time UUID object
 	 */
 	public static java.util.UUID newTimeUuid()
 	{
-		return java.util.UUID.fromString(new com.eaio.uuid.UUID().toString());
+		return new java.util.UUID(timestampToMsb(nextTimestamp()), CLOCK_SEQ_AND_NODE);
 	}
 	
 	/**
@@ -16,7 +33,101 @@ public class UuidHelper {
 	 */
 	public static byte[] newTimeUuidBytes()
 	{
-		return timeUuidToBytes(newTimeUuid());
+		return uuidToBytes(timestampToMsb(nextTimestamp()), CLOCK_SEQ_AND_NODE);
+	}
+	
+	/**
+	 * Generate a new time UUID and serialize it into a buffer
+	 * @param buffer					The buffer, which must have 16 bytes available from the offset
+	 * @param offset					The offset at which to write the time UUID
+	 */
+	public static void newTimeUuidBytes(byte[] buffer, int offset)
+	{
+		uuidToBytes(timestampToMsb(nextTimestamp()), CLOCK_SEQ_AND_NODE, buffer, offset);
+	}
+	
+	/**
+	 * Get the most significant bits of a time UUID with a given time stamp.
+	 * @param timestamp					The time stamp, as 100 nanosecond intervals since the start of the Gregorian calendar
+	 * @return							The most significant bits
+	 */
+	public static long timestampToMsb(long timestamp)
+	{
+		// time_low, then time_mid, then the version and time_hi
+		return (timestamp << 32) | ((timestamp >>> 16) & 0xffff0000L) | 0x1000L | ((timestamp >>> 48) & 0x0fffL);
+	}
+	
+	/**
+	 * Get the time stamp of a time UUID from its most significant bits.
+	 * @param msb						The most significant bits
+	 * @return							The time stamp, as 100 nanosecond intervals since the start of the Gregorian calendar
+	 */
+	public static long msbToTimestamp(long msb)
+	{
+		return ((msb & 0x0fffL) << 48) | (((msb >>> 16) & 0xffffL) << 32) | (msb >>> 32);
+	}
+	
+	/**
+	 * Get the time of a time UUID in milliseconds since the Unix epoch.
+	 * @param uuid						The time UUID
+	 * @return							The time in milliseconds
+	 */
+	public static long timeUuidToMillis(java.util.UUID uuid)
+	{
+		return (msbToTimestamp(uuid.getMostSignificantBits()) - GREGORIAN_OFFSET) / 10000;
+	}
+	
+	/**
+	 * Create a time UUID for a time in milliseconds since the Unix epoch, using the clock sequence and node of this
+	 * host. Unlike generated time UUIDs, the result is the same each time it is called with the same time. It is not
+	 * suitable as the bound of a slice, since time UUIDs with the same time stamp but other clock sequences or nodes
+	 * order either side of it; use {@link #minTimeUuidFromMillis(long)} and {@link #maxTimeUuidFromMillis(long)}
+	 * instead.
+	 * @param millis					The time in milliseconds
+	 * @return							The time UUID
+	 */
+	public static java.util.UUID timeUuidFromMillis(long millis)
+	{
+		return new java.util.UUID(timestampToMsb(millis * 10000 + GREGORIAN_OFFSET), CLOCK_SEQ_AND_NODE);
+	}
+	
+	/**
+	 * Create the lowest time UUID for a time in milliseconds since the Unix epoch, which orders before every time UUID
+	 * generated at or after that time, so it can be used as the start of a slice over time UUID columns. Its least
+	 * significant half has every bit clear, which is the lowest value when compared as unsigned bytes, as Cassandra's
+	 * <code>TimeUUIDType</code> does.
+	 * @param millis					The time in milliseconds
+	 * @return							The time UUID
+	 */
+	public static java.util.UUID minTimeUuidFromMillis(long millis)
+	{
+		return new java.util.UUID(timestampToMsb(millis * 10000 + GREGORIAN_OFFSET), 0L);
+	}
+	
+	/**
+	 * Create the highest time UUID for a time in milliseconds since the Unix epoch, which orders after every time UUID
+	 * generated during that millisecond or before it, so it can be used as the end of a slice over time UUID columns.
+	 * Its time stamp is the last within the millisecond, and its least significant half has every bit set.
+	 * @param millis					The time in milliseconds
+	 * @return							The time UUID
+	 */
+	public static java.util.UUID maxTimeUuidFromMillis(long millis)
+	{
+		return new java.util.UUID(timestampToMsb(millis * 10000 + GREGORIAN_OFFSET + 9999), -1L);
+	}
+	
+	/**
+	 * Get the next time stamp, which is the current time unless that is not greater than the last time stamp.
+	 */
+	private static long nextTimestamp()
+	{
+		long now = System.currentTimeMillis() * 10000 + GREGORIAN_OFFSET;
+		while (true) {
+			long last = lastTimestamp.get();
+			long next = now > last ? now : last + 1;
+			if (lastTimestamp.compareAndSet(last, next))
+				return next;
+		}
 	}
 
 	/**
@@ -25,18 +136,26 @@ public class UuidHelper {
 	 * @return							The deserialized time UUID object
 	 */
 	public static java.util.UUID timeUuidFromBytes( byte[] uuid )
+	{
+		assert uuid.length == 16;
+		return timeUuidFromBytes(uuid, 0);
+	}
+	
+	/**
+	 * Deserializes a TimeUUID from part of a byte array
+	 * @param buffer					The array holding the bytes of the time UUID
+	 * @param offset					The offset of the time UUID in the array
+	 * @return							The deserialized time UUID object
+	 */
+	public static java.util.UUID timeUuidFromBytes(byte[] buffer, int offset)
 	{
 		long msb = 0;
 		long lsb = 0;
-		assert uuid.length == 16;
-		for (int i=0; i<8; i++)
-			msb = (msb << 8) | (uuid[i] & 0xff);
-		for (int i=8; i<16; i++)
-			lsb = (lsb << 8) | (uuid[i] & 0xff);
-		
-		com.eaio.uuid.UUID u = new com.eaio.uuid.UUID(msb,lsb);
-		
-		return java.util.UUID.fromString(u.toString());
+		for (int i = offset; i < offset + 8; i++)
+			msb = (msb << 8) | (buffer[i] & 0xff);
+		for (int i = offset + 8; i < offset + 16; i++)
+			lsb = (lsb << 8) | (buffer[i] & 0xff);
+		return new java.util.UUID(msb, lsb);
 	}
 
 	/**
@@ -55,15 +174,34 @@ public class UuidHelper {
 	public static byte[] uuidToBytes(long msb, long lsb) {
 				
 		byte[] buffer = new byte[16];
-
+		uuidToBytes(msb, lsb, buffer, 0);
+		return buffer;
+	}
+	
+	/**
+	 * Serialize a time UUID into a buffer.
+	 * @param uuid						The time UUID to serialize
+	 * @param buffer					The buffer, which must have 16 bytes available from the offset
+	 * @param offset					The offset at which to write the time UUID
+	 */
+	public static void timeUuidToBytes(java.util.UUID uuid, byte[] buffer, int offset) {
+		uuidToBytes(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), buffer, offset);
+	}
+	
+	/**
+	 * Serialize the most and least significant bits of a UUID into a buffer.
+	 * @param msb						The most significant bits
+	 * @param lsb						The least significant bits
+	 * @param buffer					The buffer, which must have 16 bytes available from the offset
+	 * @param offset					The offset at which to write the UUID
+	 */
+	public static void uuidToBytes(long msb, long lsb, byte[] buffer, int offset) {
 		for (int i = 0; i < 8; i++) {
-			buffer[i] = (byte) (msb >>> 8 * (7 - i));
+			buffer[offset + i] = (byte) (msb >>> 8 * (7 - i));
 		}
-		for (int i = 8; i < 16; i++) {
-			buffer[i] = (byte) (lsb >>> 8 * (7 - i));
+		for (int i = 0; i < 8; i++) {
+			buffer[offset + 8 + i] = (byte) (lsb >>> 8 * (7 - i));
 		}
-
-		return buffer;
 	}
 	
 	/**
@@ -0,0 +1,274 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.SuperColumn;
+
+/**
+ * Compresses and decompresses column values. Each value is stored with a header byte: values smaller than the
+ * threshold, and values that do not shrink, are stored as they are after a zero byte, and other values are stored after
+ * a one byte and their uncompressed length as a zlib stream, whose checksum detects corrupt values.
+ * <p>A compressor is enabled for a column family with {@link GeneralPolicy#setValueCompressor(String, ValueCompressor)},
+ * after which <code>Mutator</code> objects compress the values of the columns they write to it, and
+ * <code>Selector</code> and <code>BatchingReader</code> objects decompress the values of the columns they read from it,
+ * so that the value accessors return the original values. Since every value then has a header, a compressor must only
+ * be enabled for a column family whose values were all written with one. Values read by other means can be
+ * decompressed with {@link #decompress(byte[])}.
+ * <p>Deflaters and inflaters hold native memory and are costly to create, so a compressor keeps those it has used in
+ * pools for reuse. A compressor may be shared by threads.
+ */
+public class ValueCompressor {
+    static final byte STORED = 0;
+    static final byte DEFLATED = 1;
+
+    private static final int HEADER_LENGTH = 5;
+    /** The greatest ratio by which deflate can compress data. */
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private final int threshold;
+    private final int level;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+    private final AtomicInteger pooledDeflaters = new AtomicInteger();
+    private final AtomicInteger pooledInflaters = new AtomicInteger();
+
+    /**
+     * Create a compressor that compresses values of 1KB or more at the default compression level.
+     */
+    public ValueCompressor() {
+        this(1024, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Create a compressor.
+     * @param threshold                     The size from which values are compressed
+     * @param level                         The deflate compression level, from 0 to 9, or
+     *                                      <code>Deflater.DEFAULT_COMPRESSION</code>
+     * @param maxPooled                     The maximum number of deflaters, and of inflaters, kept for reuse
+     */
+    public ValueCompressor(int threshold, int level, int maxPooled) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9))
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        this.threshold = threshold;
+        this.level = level;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Compress a value, adding its header.
+     * @param value                         The value
+     * @return                              The stored value
+     */
+    public byte[] compress(byte[] value) {
+        if (value.length >= threshold && value.length > HEADER_LENGTH) {
+            byte[] compressed = deflate(value);
+            if (compressed != null)
+                return compressed;
+        }
+        byte[] stored = new byte[value.length + 1];
+        stored[0] = STORED;
+        System.arraycopy(value, 0, stored, 1, value.length);
+        return stored;
+    }
+
+    public Bytes compress(Bytes value) {
+        return value != null ? new Bytes(compress(value.getBytes())) : null;
+    }
+
+    /**
+     * Decompress a value that was stored by {@link #compress(byte[])}.
+     * @param value                         The stored value
+     * @return                              The original value
+     * @throws IllegalArgumentException if the value was not stored by a compressor
+     */
+    public byte[] decompress(byte[] value) {
+        if (value.length == 0)
+            throw new IllegalArgumentException("A compressed value must have a header");
+        if (value[0] == STORED) {
+            byte[] original = new byte[value.length - 1];
+            System.arraycopy(value, 1, original, 0, original.length);
+            return original;
+        }
+        if (value[0] != DEFLATED || value.length < HEADER_LENGTH)
+            throw new IllegalArgumentException("Invalid compressed value header " + value[0]);
+        return inflate(value);
+    }
+
+    public Bytes decompress(Bytes value) {
+        return value != null ? new Bytes(decompress(value.getBytes())) : null;
+    }
+
+    /**
+     * Create a copy of a column with its value compressed.
+     */
+    Column compress(Column column) {
+        Column compressed = new Column(column.name, compress(column.value), column.clock);
+        if (column.isSetTtl())
+            compressed.setTtl(column.ttl);
+        return compressed;
+    }
+
+    /**
+     * Create a copy of a super column with the values of its sub-columns compressed.
+     */
+    SuperColumn compress(SuperColumn superColumn) {
+        List<Column> columns = new ArrayList<Column>(superColumn.columns.size());
+        for (Column column : superColumn.columns)
+            columns.add(compress(column));
+        return new SuperColumn(superColumn.name, columns);
+    }
+
+    /**
+     * Decompress the values of the columns in a result returned by Thrift, in place.
+     */
+    void decompress(List<ColumnOrSuperColumn> coscList) {
+        for (ColumnOrSuperColumn cosc : coscList)
+            decompress(cosc);
+    }
+
+    void decompress(ColumnOrSuperColumn cosc) {
+        if (cosc.column != null)
+            decompress(cosc.column);
+        if (cosc.super_column != null)
+            decompress(cosc.super_column);
+    }
+
+    void decompress(Column column) {
+        column.value = decompress(column.value);
+    }
+
+    void decompress(SuperColumn superColumn) {
+        for (Column column : superColumn.columns)
+            decompress(column);
+    }
+
+    void decompressRows(Map<byte[], List<ColumnOrSuperColumn>> rows) {
+        for (List<ColumnOrSuperColumn> row : rows.values())
+            decompress(row);
+    }
+
+    void decompressRows(List<KeySlice> rows) {
+        for (KeySlice row : rows)
+            decompress(row.columns);
+    }
+
+    /**
+     * Wrap a visitor so that the columns it visits have been decompressed.
+     */
+    SliceVisitor decompressing(final SliceVisitor visitor) {
+        return new SliceVisitor() {
+            @Override
+            public void beginRow(Bytes rowKey) throws Exception {
+                visitor.beginRow(rowKey);
+            }
+
+            @Override
+            public void visitColumn(Bytes rowKey, Column column) throws Exception {
+                decompress(column);
+                visitor.visitColumn(rowKey, column);
+            }
+
+            @Override
+            public void visitSuperColumn(Bytes rowKey, SuperColumn superColumn) throws Exception {
+                decompress(superColumn);
+                visitor.visitSuperColumn(rowKey, superColumn);
+            }
+
+            @Override
+            public void endRow(Bytes rowKey) throws Exception {
+                visitor.endRow(rowKey);
+            }
+        };
+    }
+
+    /**
+     * Deflate a value into a buffer no larger than the value, so that a value that would not shrink is abandoned
+     * without growing the buffer.
+     * @return                              The compressed value, or null if it would not be smaller
+     */
+    private byte[] deflate(byte[] value) {
+        Deflater deflater = deflaters.poll();
+        if (deflater != null)
+            pooledDeflaters.decrementAndGet();
+        else
+            deflater = new Deflater(level);
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            byte[] buffer = new byte[value.length];
+            buffer[0] = DEFLATED;
+            NumberHelper.toBytes(value.length, buffer, 1);
+            int length = HEADER_LENGTH;
+            while (!deflater.finished() && length < buffer.length)
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            if (!deflater.finished())
+                return null;
+            byte[] compressed = new byte[length];
+            System.arraycopy(buffer, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            deflater.reset();
+            if (pooledDeflaters.incrementAndGet() <= maxPooled) {
+                deflaters.offer(deflater);
+            } else {
+                pooledDeflaters.decrementAndGet();
+                deflater.end();
+            }
+        }
+    }
+
+    private byte[] inflate(byte[] value) {
+        int originalLength = NumberHelper.toInt(value, 1);
+        // A value is only deflated if that makes it smaller, so a corrupt length is rejected before it is allocated
+        if (originalLength < value.length || originalLength > (long) (value.length - HEADER_LENGTH) * MAX_DEFLATE_RATIO)
+            throw new IllegalArgumentException("Invalid uncompressed length " + originalLength + " of compressed value");
+        Inflater inflater = inflaters.poll();
+        if (inflater != null)
+            pooledInflaters.decrementAndGet();
+        else
+            inflater = new Inflater();
+        try {
+            byte[] original = new byte[originalLength];
+            inflater.setInput(value, HEADER_LENGTH, value.length - HEADER_LENGTH);
+            int length = 0;
+            while (!inflater.finished()) {
+                int count = inflater.inflate(original, length, original.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary() || length == original.length))
+                    break;
+                length += count;
+            }
+            if (!inflater.finished() || length != original.length)
+                throw new IllegalArgumentException("Compressed value is corrupt");
+            return original;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Compressed value is corrupt", e);
+        } finally {
+            inflater.reset();
+            if (pooledInflaters.incrementAndGet() <= maxPooled) {
+                inflaters.offer(inflater);
+            } else {
+                pooledInflaters.decrementAndGet();
+                inflater.end();
+            }
+        }
+    }
+}
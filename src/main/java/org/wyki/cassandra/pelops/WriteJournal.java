@@ -0,0 +1,566 @@
+package org.wyki.cassandra.pelops;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.TimedOutException;
+import org.apache.cassandra.thrift.UnavailableException;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+import org.cliffc.high_scale_lib.Counter;
+import org.slf4j.Logger;
+import org.wyki.cassandra.pelops.ThriftPool.Connection;
+import org.wyki.portability.SystemProxy;
+
+/**
+ * A local, append-only journal of batches that could not be written to Cassandra because the cluster could not be
+ * reached. When a journal is set on a pool, a <code>Mutator</code> appends each chunk of its batch that fails for that
+ * reason to the journal, rather than throwing its failure. A background thread replays the journaled batches to the
+ * cluster, oldest first, once nodes are available again. Until the journal has been replayed, mutators append their
+ * batches to it directly, so that they are not written before the batches journaled ahead of them.
+ * <p>The journal is held in a directory of fixed-size segment files, which are memory-mapped. Each record holds an
+ * encoded <code>batch_mutate</code> call and a checksum, and is replayed exactly as it was encoded. A segment is deleted
+ * once all its records have been replayed. When the journal is reopened, for example after the process restarts,
+ * replay resumes from the start of the oldest remaining segment. Some batches may therefore be written more than once,
+ * which is harmless since their mutations carry fixed time stamps.
+ * <p>A batch that keeps failing when it is replayed would hold up the batches behind it, so once it has failed the
+ * maximum number of replay attempts it is moved aside to the rejected file in the journal directory, in the same
+ * record format as the segments, and replay moves on to the next batch.
+ * <p>How often the segments are forced to disk is set by the {@link SyncMode}. When the journal reaches its maximum
+ * size, further batches are not journaled, and the failure is thrown to the caller as it would be without a journal.
+ */
+public class WriteJournal {
+    private static final Logger logger = SystemProxy.getLoggerFromFactory(WriteJournal.class);
+
+    private static final int MAGIC = 0x504a4e4c;
+    private static final int HEADER_SIZE = 4;
+    /**
+     * Each record is preceded by its length and checksum.
+     */
+    private static final int RECORD_OVERHEAD = 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String REJECTED_FILE = "rejected.log";
+
+    /**
+     * Determines when journaled batches are forced to disk.
+     */
+    public enum SyncMode {
+        /**
+         * Leave writing the segments to disk to the operating system. Batches survive the failure of the process, but
+         * not of the machine.
+         */
+        NONE,
+        /**
+         * Force the segments to disk at the sync interval.
+         */
+        PERIODIC,
+        /**
+         * Force the segment to disk each time a batch is journaled, before the <code>Mutator</code> returns.
+         */
+        ALWAYS
+    }
+
+    private final ThriftPool thrift;
+    private final File directory;
+    private final Policy policy;
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private final CRC32 crc = new CRC32();
+    private final Thread replayer;
+    private long nextSegmentId;
+    private boolean dirty;
+    private long lastSync;
+    private volatile boolean closed;
+
+    private final Counter appended = new Counter();
+    private final Counter replayed = new Counter();
+    private final Counter discarded = new Counter();
+    private final Counter rejected = new Counter();
+
+    /**
+     * Open a journal, recovering any segments left in its directory, and start the thread that replays it.
+     * @param thrift                        The pool to which journaled batches are replayed
+     * @param directory                     The directory holding the segment files
+     * @param policy                        Determines the size of the journal and when it is forced to disk
+     * @throws IOException if the directory or its segments cannot be opened
+     */
+    public WriteJournal(ThriftPool thrift, File directory, Policy policy) throws IOException {
+        this.thrift = thrift;
+        this.directory = directory;
+        this.policy = policy;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create the journal directory " + directory);
+        recover();
+        lastSync = System.currentTimeMillis();
+        replayer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, "pelops-write-journal");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    /**
+     * Stop replaying the journal, and force its segments to disk. Batches that have not been replayed remain in the
+     * directory, and are replayed when the journal is next opened.
+     * @throws InterruptedException if interrupted while waiting for the replay thread to stop
+     */
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        replayer.join();
+        synchronized (this) {
+            for (Segment segment : segments)
+                segment.buffer.force();
+        }
+    }
+
+    /**
+     * Get the number of batches that have been journaled since the journal was opened.
+     * @return                              The batch count
+     */
+    public long getAppendedCount() {
+        return appended.get();
+    }
+
+    /**
+     * Get the number of batches that have been replayed since the journal was opened.
+     * @return                              The batch count
+     */
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    /**
+     * Get the number of batches that were discarded because Cassandra rejected them when they were replayed.
+     * @return                              The batch count
+     */
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    /**
+     * Get the number of batches that were moved aside to the rejected file because they failed the maximum number of
+     * replay attempts.
+     * @return                              The batch count
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Get the size of the batches waiting to be replayed.
+     * @return                              The size in bytes
+     */
+    public synchronized long getPendingBytes() {
+        long pending = 0;
+        for (Segment segment : segments)
+            pending += segment.writePosition - segment.readPosition;
+        return pending;
+    }
+
+    /**
+     * Determines whether a failure to execute a batch means that the cluster could not be reached, rather than that
+     * the batch was rejected, and so whether the batch should be journaled. Only the failures that operations retry,
+     * and a pool that has no connection to give, are journaled.
+     */
+    static boolean isJournaled(Exception e) {
+        return e instanceof TimedOutException ||
+                e instanceof TTransportException ||
+                e instanceof UnavailableException ||
+                e instanceof NoConnectionException;
+    }
+
+    /**
+     * Append a batch to the journal.
+     * @return                              Whether the batch was journaled, which it is not if the journal is full
+     */
+    boolean append(Map<Bytes, Map<String, List<Mutation>>> batch, ConsistencyLevel cLevel) throws TException, IOException {
+        BatchMutateEncoder encoder = new BatchMutateEncoder(batch, cLevel);
+        try {
+            return append(encoder.getBytes(), encoder.size());
+        } finally {
+            encoder.release();
+        }
+    }
+
+    private synchronized boolean append(byte[] bytes, int length) throws IOException {
+        if (closed)
+            return false;
+        Segment tail = segments.isEmpty() ? null : segments.getLast();
+        if (tail == null || tail.buffer.capacity() - tail.writePosition < length + RECORD_OVERHEAD) {
+            if (HEADER_SIZE + RECORD_OVERHEAD + length > policy.getSegmentSize() ||
+                    (long) (segments.size() + 1) * policy.getSegmentSize() > policy.getMaxJournalBytes()) {
+                logger.warn("Write journal is full, so a batch of {} bytes cannot be journaled", length);
+                return false;
+            }
+            if (tail != null && policy.getSyncMode() != SyncMode.NONE)
+                tail.buffer.force();
+            tail = createSegment();
+        }
+        crc.reset();
+        crc.update(bytes, 0, length);
+        ByteBuffer buffer = tail.buffer.duplicate();
+        buffer.position(tail.writePosition + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(bytes, 0, length);
+        // Write the length last, so that a partly written record is not mistaken for a complete one
+        buffer.putInt(tail.writePosition, length);
+        tail.writePosition += RECORD_OVERHEAD + length;
+        appended.increment();
+        if (policy.getSyncMode() == SyncMode.ALWAYS)
+            tail.buffer.force();
+        else
+            dirty = true;
+        notifyAll();
+        return true;
+    }
+
+    private void replay() {
+        byte[] bytes = new byte[0];
+        long retryTime = 0;
+        int attempts = 0;
+        while (true) {
+            Segment segment;
+            int length;
+            synchronized (this) {
+                segment = null;
+                length = 0;
+                while (!closed) {
+                    syncIfDue();
+                    long retryDelay = retryTime - System.currentTimeMillis();
+                    if (retryDelay > 0) {
+                        // Appends wake this thread, but must not cut short the delay before a failed replay is retried
+                        waitQuietly(Math.min(retryDelay, policy.getSyncInterval()));
+                        continue;
+                    }
+                    Segment head = segments.isEmpty() ? null : segments.getFirst();
+                    if (head != null && head.readPosition < head.writePosition) {
+                        segment = head;
+                        length = head.buffer.getInt(head.readPosition);
+                        break;
+                    }
+                    if (head != null && head != segments.getLast()) {
+                        deleteSegment(segments.removeFirst());
+                        continue;
+                    }
+                    waitQuietly(policy.getSyncInterval());
+                }
+                if (closed)
+                    return;
+                if (bytes.length < length)
+                    bytes = new byte[length];
+                ByteBuffer buffer = segment.buffer.duplicate();
+                buffer.position(segment.readPosition + RECORD_OVERHEAD);
+                buffer.get(bytes, 0, length);
+            }
+
+            ReplayResult result = replay(bytes, length);
+            if (result == ReplayResult.FAILED && ++attempts >= policy.getMaxReplayAttempts()) {
+                reject(bytes, length, segment.buffer.getInt(segment.readPosition + 4));
+                result = ReplayResult.FINISHED;
+            }
+            if (result == ReplayResult.FINISHED) {
+                attempts = 0;
+                retryTime = 0;
+                synchronized (this) {
+                    segment.readPosition += RECORD_OVERHEAD + length;
+                }
+            } else {
+                retryTime = System.currentTimeMillis() + policy.getReplayRetryDelay();
+            }
+        }
+    }
+
+    private enum ReplayResult {
+        /**
+         * The batch is finished with, either because it was written or because it was rejected.
+         */
+        FINISHED,
+        /**
+         * No connection was available, which does not count as an attempt to replay the batch.
+         */
+        UNREACHABLE,
+        /**
+         * The batch was sent but failed.
+         */
+        FAILED
+    }
+
+    /**
+     * Replay a batch.
+     * @return                              The outcome of the replay
+     */
+    private ReplayResult replay(byte[] bytes, int length) {
+        Connection conn;
+        try {
+            conn = thrift.getConnection();
+        } catch (Exception e) {
+            logger.debug("Write journal cannot replay yet: {}", e.getMessage());
+            return ReplayResult.UNREACHABLE;
+        }
+        try {
+            BatchMutateEncoder.send(conn, bytes, length);
+            conn.release(false);
+            replayed.increment();
+            return ReplayResult.FINISHED;
+        } catch (Exception e) {
+            if (isJournaled(e)) {
+                conn.release(true);
+                logger.debug("Write journal cannot replay yet: {}", e.getMessage());
+                return ReplayResult.FAILED;
+            }
+            conn.release(false);
+            discarded.increment();
+            logger.warn("Write journal discarded a batch that was rejected: {}", e.getMessage());
+            return ReplayResult.FINISHED;
+        }
+    }
+
+    /**
+     * Move a batch that keeps failing aside to the rejected file. If the file cannot be written, the batch is dropped.
+     */
+    private void reject(byte[] bytes, int length, int checksum) {
+        rejected.increment();
+        File file = new File(directory, REJECTED_FILE);
+        logger.warn("Write journal moved a batch of {} bytes that failed {} replay attempts to {}",
+                new Object[] { length, policy.getMaxReplayAttempts(), file });
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(raf.length());
+                raf.writeInt(length);
+                raf.writeInt(checksum);
+                raf.write(bytes, 0, length);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            logger.error("Write journal could not write a rejected batch to " + file, e);
+        }
+    }
+
+    private void syncIfDue() {
+        if (!dirty || policy.getSyncMode() != SyncMode.PERIODIC)
+            return;
+        long now = System.currentTimeMillis();
+        if (now - lastSync < policy.getSyncInterval())
+            return;
+        segments.getLast().buffer.force();
+        dirty = false;
+        lastSync = now;
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            closed = true;
+        }
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles();
+        List<Segment> recovered = new ArrayList<Segment>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+                    continue;
+                long id;
+                try {
+                    id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                recovered.add(new Segment(id, file, map(file, file.length())));
+            }
+        }
+        Collections.sort(recovered, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment a, Segment b) {
+                return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+            }
+        });
+        for (Segment segment : recovered) {
+            if (segment.buffer.capacity() < HEADER_SIZE || segment.buffer.getInt(0) != MAGIC) {
+                logger.warn("Write journal ignored {}, which is not a journal segment", segment.file);
+                continue;
+            }
+            segment.writePosition = findEnd(segment.buffer);
+            segments.add(segment);
+            nextSegmentId = segment.id + 1;
+        }
+        if (!segments.isEmpty())
+            logger.info("Write journal recovered {} segments holding {} bytes to replay", segments.size(), getPendingBytes());
+    }
+
+    /**
+     * Find the end of the complete records in a segment.
+     */
+    private int findEnd(ByteBuffer buffer) {
+        CRC32 check = new CRC32();
+        byte[] bytes = new byte[0];
+        int position = HEADER_SIZE;
+        while (position + RECORD_OVERHEAD <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_OVERHEAD + length > buffer.capacity())
+                break;
+            if (bytes.length < length)
+                bytes = new byte[length];
+            ByteBuffer record = buffer.duplicate();
+            record.position(position + RECORD_OVERHEAD);
+            record.get(bytes, 0, length);
+            check.reset();
+            check.update(bytes, 0, length);
+            if ((int) check.getValue() != buffer.getInt(position + 4))
+                break;
+            position += RECORD_OVERHEAD + length;
+        }
+        return position;
+    }
+
+    private Segment createSegment() throws IOException {
+        long id = nextSegmentId++;
+        File file = new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+        Segment segment = new Segment(id, file, map(file, policy.getSegmentSize()));
+        segment.buffer.putInt(0, MAGIC);
+        segment.writePosition = HEADER_SIZE;
+        segments.add(segment);
+        return segment;
+    }
+
+    private void deleteSegment(Segment segment) {
+        // The mapping is released when the buffer is collected, which some platforms require before the file can go
+        segment.buffer = null;
+        if (!segment.file.delete())
+            logger.warn("Write journal could not delete the replayed segment {}", segment.file);
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < size)
+                raf.setLength(size);
+            // The mapping remains valid once the file has been closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static class Segment {
+        private final long id;
+        private final File file;
+        private MappedByteBuffer buffer;
+        private int readPosition = HEADER_SIZE;
+        private int writePosition;
+
+        Segment(long id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Determines the size of a journal and when it is forced to disk.
+     */
+    public static class Policy {
+        int segmentSize = 64 * 1024 * 1024;
+        long maxJournalBytes = 1024L * 1024 * 1024;
+        SyncMode syncMode = SyncMode.PERIODIC;
+        int syncInterval = 1000;
+        int replayRetryDelay = 1000;
+        int maxReplayAttempts = 100;
+
+        public Policy() {
+        }
+
+        public int getSegmentSize() {
+            return segmentSize;
+        }
+
+        /**
+         * Set the size in bytes of each segment file. A batch larger than a segment cannot be journaled. Default to 64MB.
+         */
+        public void setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public long getMaxJournalBytes() {
+            return maxJournalBytes;
+        }
+
+        /**
+         * Set the maximum total size in bytes of the segment files. Default to 1GB.
+         */
+        public void setMaxJournalBytes(long maxJournalBytes) {
+            this.maxJournalBytes = maxJournalBytes;
+        }
+
+        public SyncMode getSyncMode() {
+            return syncMode;
+        }
+
+        /**
+         * Set when journaled batches are forced to disk. Default to <code>PERIODIC</code>.
+         */
+        public void setSyncMode(SyncMode syncMode) {
+            this.syncMode = syncMode;
+        }
+
+        public int getSyncInterval() {
+            return syncInterval;
+        }
+
+        /**
+         * Set the interval in milliseconds at which the journal is forced to disk in <code>PERIODIC</code> mode.
+         * Default to 1000.
+         */
+        public void setSyncInterval(int syncInterval) {
+            this.syncInterval = syncInterval;
+        }
+
+        public int getReplayRetryDelay() {
+            return replayRetryDelay;
+        }
+
+        /**
+         * Set the time in milliseconds to wait before retrying a replay that failed because the cluster could not be
+         * reached. Default to 1000.
+         */
+        public void setReplayRetryDelay(int replayRetryDelay) {
+            this.replayRetryDelay = replayRetryDelay;
+        }
+
+        public int getMaxReplayAttempts() {
+            return maxReplayAttempts;
+        }
+
+        /**
+         * Set the number of times a batch may fail to replay after it has been sent before it is moved aside to the
+         * rejected file. Attempts made while no connection is available are not counted. Default to 100.
+         */
+        public void setMaxReplayAttempts(int maxReplayAttempts) {
+            this.maxReplayAttempts = maxReplayAttempts;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompositeNameTest {
+    @Test
+    public void stringsWithZeroBytesSortInValueOrder() {
+        List<Bytes> names = new ArrayList<Bytes>();
+        for (String value : new String[] { "", "\0", "\0\0", "\0a", "a", "a\0", "a\0b", "ab", "b" })
+            names.add(new CompositeName().add(value).add(0L).toBytes());
+        assertSortsInOrder(names);
+    }
+
+    @Test
+    public void bytesWithZeroBytesSortInValueOrder() {
+        byte[][] values = {
+                {}, { 0 }, { 0, 0 }, { 0, 1 }, { 0, (byte) 0xff }, { 1 }, { 1, 0 }, { 1, 0, 0 }, { 1, 1 }, { (byte) 0xff }
+        };
+        List<Bytes> names = new ArrayList<Bytes>();
+        for (byte[] value : values)
+            names.add(new CompositeName().add(new Bytes(value)).add(0L).toBytes());
+        assertSortsInOrder(names);
+    }
+
+    @Test
+    public void longsSortInValueOrder() {
+        List<Bytes> names = new ArrayList<Bytes>();
+        for (long value : new long[] { Long.MIN_VALUE, -1000, -256, -1, 0, 1, 256, 1000, Long.MAX_VALUE })
+            names.add(new CompositeName().add(value).toBytes());
+        assertSortsInOrder(names);
+    }
+
+    @Test
+    public void doublesSortInValueOrder() {
+        double[] values = {
+                Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, -1.5, -1, -Double.MIN_VALUE, -0.0, 0.0, Double.MIN_VALUE, 1,
+                1.5, Double.MAX_VALUE, Double.POSITIVE_INFINITY
+        };
+        List<Bytes> names = new ArrayList<Bytes>();
+        for (double value : values)
+            names.add(new CompositeName().add(value).toBytes());
+        assertSortsInOrder(names);
+    }
+
+    @Test
+    public void prefixEndAndSuccessorBoundTheNamesThatExtendAPrefix() {
+        CompositeName prefix = new CompositeName().add("user").add(5L);
+        Bytes successor = prefix.toSuccessor();
+        Bytes prefixEnd = prefix.toPrefixEnd();
+
+        List<Bytes> extensions = Arrays.asList(
+                new CompositeName().add("user").add(5L).add(new Bytes(new byte[0])).toBytes(),
+                new CompositeName().add("user").add(5L).add("").toBytes(),
+                new CompositeName().add("user").add(5L).add(Long.MIN_VALUE).toBytes(),
+                new CompositeName().add("user").add(5L).add(Double.POSITIVE_INFINITY).toBytes(),
+                new CompositeName().add("user").add(5L).add(new UUID(-1L, -1L)).toBytes(),
+                new CompositeName().add("user").add(5L).addTimeUuid(UuidHelper.maxTimeUuidFromMillis(4102444800000L)).toBytes());
+        for (Bytes extension : extensions) {
+            assertTrue(BytesComparator.BYTES.compare(successor, extension) < 0);
+            assertTrue(BytesComparator.BYTES.compare(extension, prefixEnd) < 0);
+        }
+        assertTrue(BytesComparator.BYTES.compare(prefix.toBytes(), successor) < 0);
+
+        // Names outside the prefix fall outside the bounds
+        Bytes before = new CompositeName().add("user").add(4L).add(Double.POSITIVE_INFINITY).toBytes();
+        Bytes after = new CompositeName().add("user").add(6L).toBytes();
+        Bytes longerString = new CompositeName().add("user\0").add(5L).toBytes();
+        assertTrue(BytesComparator.BYTES.compare(before, prefix.toBytes()) < 0);
+        assertTrue(BytesComparator.BYTES.compare(prefixEnd, after) < 0);
+        assertTrue(BytesComparator.BYTES.compare(prefixEnd, longerString) < 0);
+    }
+
+    @Test
+    public void readerReturnsTheComponentsThatWereAdded() {
+        UUID uuid = UUID.fromString("01234567-89ab-cdef-0123-456789abcdef");
+        UUID timeUuid = UuidHelper.minTimeUuidFromMillis(1287360000000L);
+        Bytes name = new CompositeName()
+                .add("a\0b")
+                .add(new Bytes(new byte[] { 0, 1, 0 }))
+                .add(-42L)
+                .add(-2.5)
+                .add(uuid)
+                .addTimeUuid(timeUuid)
+                .add("plain")
+                .toBytes();
+        assertComponents(name, uuid, timeUuid);
+        assertEquals(Arrays.<Object>asList("a\0b", new Bytes(new byte[] { 0, 1, 0 }), -42L, -2.5, uuid, timeUuid, "plain"),
+                CompositeName.parse(name));
+
+        // A name read as a slice of a larger array, as it is when it is part of a Thrift result
+        byte[] array = new byte[name.length() + 6];
+        Arrays.fill(array, (byte) 0x7f);
+        System.arraycopy(name.getArray(), name.getOffset(), array, 3, name.length());
+        assertComponents(new Bytes(array, 3, name.length()), uuid, timeUuid);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readerRejectsAComponentOfAnotherType() {
+        new CompositeName.Reader(new CompositeName().add(1L).toBytes()).nextString();
+    }
+
+    private static void assertComponents(Bytes name, UUID uuid, UUID timeUuid) {
+        CompositeName.Reader reader = new CompositeName.Reader(name);
+        assertEquals("a\0b", reader.nextString());
+        assertEquals(new Bytes(new byte[] { 0, 1, 0 }), reader.nextBytes());
+        assertEquals(-42L, reader.nextLong());
+        assertEquals(-2.5, reader.nextDouble(), 0);
+        assertEquals(uuid, reader.nextUuid());
+        assertEquals(timeUuid, reader.nextTimeUuid());
+        assertEquals("plain", reader.nextString());
+        assertFalse(reader.hasNext());
+    }
+
+    /**
+     * Check that names sort in the order given when compared as unsigned bytes.
+     */
+    private static void assertSortsInOrder(List<Bytes> names) {
+        List<Bytes> sorted = new ArrayList<Bytes>(names);
+        Collections.shuffle(sorted, new Random(1));
+        Collections.sort(sorted, BytesComparator.BYTES);
+        assertEquals(names, sorted);
+    }
+}
@@ -0,0 +1,156 @@
+package org.wyki.cassandra.pelops;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cassandra.thrift.Clock;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.apache.cassandra.thrift.SuperColumn;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MutationCoalescerTest {
+    @Test
+    public void keepsTheWriteWithTheHighestClock() {
+        List<Mutation> coalesced = MutationCoalescer.coalesce(Arrays.asList(write("a", "new", 2), write("a", "old", 1)));
+        assertEquals(1, coalesced.size());
+        assertArrayEquals(bytes("new"), coalesced.get(0).getColumn_or_supercolumn().column.value);
+    }
+
+    @Test
+    public void keepsTheGreaterValueWhenClocksAreEqual() {
+        // Cassandra keeps the greater value whichever write it receives first
+        List<Mutation> coalesced = MutationCoalescer.coalesce(Arrays.asList(write("a", "b", 1), write("a", "a", 1)));
+        assertEquals(1, coalesced.size());
+        assertArrayEquals(bytes("b"), coalesced.get(0).getColumn_or_supercolumn().column.value);
+
+        coalesced = MutationCoalescer.coalesce(Arrays.asList(write("a", "a", 1), write("a", "b", 1)));
+        assertEquals(1, coalesced.size());
+        assertArrayEquals(bytes("b"), coalesced.get(0).getColumn_or_supercolumn().column.value);
+    }
+
+    @Test
+    public void comparesValuesAsUnsignedBytesWhenClocksAreEqual() {
+        List<Mutation> mutations = new ArrayList<Mutation>();
+        mutations.add(write("a", new byte[] { (byte) 0x80 }, 1));
+        mutations.add(write("a", new byte[] { 0x7f }, 1));
+        List<Mutation> coalesced = MutationCoalescer.coalesce(mutations);
+        assertEquals(1, coalesced.size());
+        assertArrayEquals(new byte[] { (byte) 0x80 }, coalesced.get(0).getColumn_or_supercolumn().column.value);
+    }
+
+    @Test
+    public void dropsAWriteWhenADeletionHasAnEqualOrHigherClock() {
+        List<Mutation> coalesced = MutationCoalescer.coalesce(Arrays.asList(write("a", "v", 1), delete(2, "a")));
+        assertEquals(1, coalesced.size());
+        assertDeletion(coalesced.get(0), null, 2, "a");
+
+        // Deletions win ties
+        coalesced = MutationCoalescer.coalesce(Arrays.asList(write("a", "v", 2), delete(2, "a")));
+        assertEquals(1, coalesced.size());
+        assertDeletion(coalesced.get(0), null, 2, "a");
+    }
+
+    @Test
+    public void dropsADeletionWhenAWriteHasAHigherClock() {
+        List<Mutation> coalesced = MutationCoalescer.coalesce(Arrays.asList(delete(1, "a"), write("a", "v", 2)));
+        assertEquals(1, coalesced.size());
+        assertArrayEquals(bytes("v"), coalesced.get(0).getColumn_or_supercolumn().column.value);
+    }
+
+    @Test
+    public void mergesDeletionsWithTheSameClock() {
+        List<Mutation> coalesced = MutationCoalescer.coalesce(Arrays.asList(delete(1, "a"), delete(2, "b"), delete(1, "c")));
+        assertEquals(2, coalesced.size());
+        assertDeletion(coalesced.get(0), null, 1, "a", "c");
+        assertDeletion(coalesced.get(1), null, 2, "b");
+    }
+
+    @Test
+    public void aSuperColumnDeletionShadowsItsSubColumnWritesAndDeletions() {
+        List<Mutation> mutations = new ArrayList<Mutation>();
+        mutations.add(writeSub("s", "a", "v", 1));
+        mutations.add(deleteSub("s", 2, "b"));
+        mutations.add(writeSub("s", "c", "v", 3));
+        mutations.add(deleteSuper("s", 2));
+        List<Mutation> coalesced = MutationCoalescer.coalesce(mutations);
+        assertEquals(2, coalesced.size());
+        SuperColumn superColumn = coalesced.get(0).getColumn_or_supercolumn().super_column;
+        assertArrayEquals(bytes("s"), superColumn.name);
+        assertEquals(1, superColumn.columns.size());
+        assertArrayEquals(bytes("c"), superColumn.columns.get(0).name);
+        assertDeletion(coalesced.get(1), null, 2, "s");
+    }
+
+    @Test
+    public void leavesSliceRangeAndRowDeletionsAsTheyAre() {
+        Deletion sliceDeletion = new Deletion(new Clock(2)).setPredicate(
+                new SlicePredicate().setSlice_range(new SliceRange(bytes("a"), bytes("z"), false, 100)));
+        assertNull(MutationCoalescer.coalesce(Arrays.asList(write("a", "v", 1), new Mutation().setDeletion(sliceDeletion))));
+
+        Deletion rowDeletion = new Deletion(new Clock(2));
+        assertNull(MutationCoalescer.coalesce(Arrays.asList(write("a", "v", 1), new Mutation().setDeletion(rowDeletion))));
+    }
+
+    private static void assertDeletion(Mutation mutation, String superColName, long timestamp, String... colNames) {
+        Deletion deletion = mutation.getDeletion();
+        assertEquals(timestamp, deletion.getClock().getTimestamp());
+        if (superColName == null)
+            assertNull(deletion.getSuper_column());
+        else
+            assertArrayEquals(bytes(superColName), deletion.getSuper_column());
+        List<String> names = new ArrayList<String>();
+        for (byte[] colName : deletion.getPredicate().getColumn_names())
+            names.add(StringHelper.toUTF8(colName));
+        assertEquals(Arrays.asList(colNames), names);
+    }
+
+    private static Mutation write(String name, String value, long timestamp) {
+        return write(name, bytes(value), timestamp);
+    }
+
+    private static Mutation write(String name, byte[] value, long timestamp) {
+        Column column = new Column(bytes(name), value, new Clock(timestamp));
+        return new Mutation().setColumn_or_supercolumn(new ColumnOrSuperColumn().setColumn(column));
+    }
+
+    private static Mutation writeSub(String superColName, String name, String value, long timestamp) {
+        List<Column> columns = new ArrayList<Column>();
+        columns.add(new Column(bytes(name), bytes(value), new Clock(timestamp)));
+        SuperColumn superColumn = new SuperColumn(bytes(superColName), columns);
+        return new Mutation().setColumn_or_supercolumn(new ColumnOrSuperColumn().setSuper_column(superColumn));
+    }
+
+    private static Mutation delete(long timestamp, String... colNames) {
+        return new Mutation().setDeletion(new Deletion(new Clock(timestamp)).setPredicate(predicate(colNames)));
+    }
+
+    private static Mutation deleteSub(String superColName, long timestamp, String... colNames) {
+        Deletion deletion = new Deletion(new Clock(timestamp)).setSuper_column(bytes(superColName)).setPredicate(predicate(colNames));
+        return new Mutation().setDeletion(deletion);
+    }
+
+    private static Mutation deleteSuper(String superColName, long timestamp) {
+        return new Mutation().setDeletion(new Deletion(new Clock(timestamp)).setSuper_column(bytes(superColName)));
+    }
+
+    private static SlicePredicate predicate(String... colNames) {
+        List<byte[]> names = new ArrayList<byte[]>();
+        for (String colName : colNames)
+            names.add(bytes(colName));
+        return new SlicePredicate().setColumn_names(names);
+    }
+
+    private static byte[] bytes(String string) {
+        return StringHelper.toBytes(string);
+    }
+}